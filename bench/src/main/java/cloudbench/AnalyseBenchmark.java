@@ -0,0 +1,52 @@
+package cloudbench;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parallel classification and wind reduction across sequential cutoffs
+ *
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = {"-Xmx4g", "--add-modules", "jdk.incubator.vector"})
+public class AnalyseBenchmark {
+
+	@Param({"16x128x128", "64x256x256", "64x512x512"})
+	String size;
+
+	@Param({"500", "2500", "20000", "100000"})
+	int cutoff;
+
+	CloudDataHandle loaded;
+
+	@Setup(Level.Trial)
+	public void setup() throws Throwable {
+		loaded = new CloudDataHandle();
+		loaded.load(Datasets.grid(size).getPath());
+	}
+
+	@Benchmark
+	public Vector analyseData() throws Throwable {
+		return loaded.analyseData(cutoff);
+	}
+}
@@ -0,0 +1,35 @@
+package cloudbench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with allocation profiling, writing results as JSON
+ *
+ *<p>
+ *Accepts the usual JMH command line options. Unless told otherwise, results are written to jmh-result.json in the working directory so they can be compared across releases.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		ChainedOptionsBuilder opts = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class);
+		if(!cmd.getResultFormat().hasValue()) {
+			opts.resultFormat(ResultFormatType.JSON);
+		}
+		if(!cmd.getResult().hasValue()) {
+			opts.result("jmh-result.json");
+		}
+		new Runner(opts.build()).run();
+	}
+}
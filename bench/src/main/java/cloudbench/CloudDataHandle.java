@@ -0,0 +1,98 @@
+package cloudbench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Vector;
+
+/**
+ * Gives the benchmarks access to a CloudData instance
+ *
+ *<p>
+ *The program classes live in the unnamed package, which code in a named package cannot refer to, while JMH requires benchmarks to be in a named package. Calls are therefore made through method handles looked up once per class. The cost of a handle call is negligible next to the millisecond scale operations being measured.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+final class CloudDataHandle {
+
+	static final MethodHandle NEW;
+	static final MethodHandle READ_DATA;
+	static final MethodHandle FIND_AVERAGE;
+	static final MethodHandle GET_CLOUDS;
+	static final MethodHandle ANALYSE_DATA;
+	static final MethodHandle WRITE_DATA;
+	static final MethodHandle GET_DIMT;
+	static final MethodHandle SET_SCALEDT;
+	static final MethodHandle GRID_FILE_MAIN;
+
+	static {
+		try {
+			Class<?> cloudData = Class.forName("CloudData");
+			MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(cloudData, MethodHandles.lookup());
+			NEW = lookup.findConstructor(cloudData, MethodType.methodType(void.class));
+			READ_DATA = lookup.findVirtual(cloudData, "readData", MethodType.methodType(void.class, String.class));
+			FIND_AVERAGE = lookup.findVirtual(cloudData, "findAverage", MethodType.methodType(Vector.class));
+			GET_CLOUDS = lookup.findVirtual(cloudData, "getClouds", MethodType.methodType(void.class));
+			ANALYSE_DATA = lookup.findVirtual(cloudData, "analyseData", MethodType.methodType(Vector.class, int.class));
+			WRITE_DATA = lookup.findVirtual(cloudData, "writeData", MethodType.methodType(void.class, String.class, Vector.class));
+			GET_DIMT = lookup.findGetter(cloudData, "dimt", int.class);
+			SET_SCALEDT = lookup.findSetter(cloudData, "scaledt", int.class);
+			Class<?> gridFile = Class.forName("GridFile");
+			GRID_FILE_MAIN = MethodHandles.publicLookup().findStatic(gridFile, "main", MethodType.methodType(void.class, String[].class));
+		}
+		catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	final Object cd;
+
+	/**
+	*Creates a new, empty CloudData instance
+	*/
+	CloudDataHandle() {
+		try {
+			cd = NEW.invoke();
+		}
+		catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	* Reads the given input file and sets up the instance to analyse all of its time slices
+	*/
+	void load(String fileName) throws Throwable {
+		READ_DATA.invoke(cd, fileName);
+		SET_SCALEDT.invoke(cd, (int)GET_DIMT.invoke(cd));
+	}
+
+	void readData(String fileName) throws Throwable {
+		READ_DATA.invoke(cd, fileName);
+	}
+
+	Vector findAverage() throws Throwable {
+		return (Vector)FIND_AVERAGE.invoke(cd);
+	}
+
+	void getClouds() throws Throwable {
+		GET_CLOUDS.invoke(cd);
+	}
+
+	Vector analyseData(int cutoff) throws Throwable {
+		return (Vector)ANALYSE_DATA.invoke(cd, cutoff);
+	}
+
+	void writeData(String fileName, Vector wind) throws Throwable {
+		WRITE_DATA.invoke(cd, fileName, wind);
+	}
+
+	/**
+	* Converts a text input file to the binary grid format
+	*/
+	static void convert(String textFile, String gridFile) throws Throwable {
+		GRID_FILE_MAIN.invoke((Object)new String[] {textFile, gridFile});
+	}
+}
@@ -0,0 +1,65 @@
+package cloudbench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Creates input data files of a requested size for the benchmarks
+ *
+ *<p>
+ *Files are generated from a fixed seed, so every fork and every run measures the same data. They are kept in a directory under java.io.tmpdir and reused between runs.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+final class Datasets {
+
+	static final long SEED = 20200801L;
+	static final File DIR = new File(System.getProperty("java.io.tmpdir"), "cloudbench");
+
+	/**
+	* Returns the text input file for the given size, generating it if needed
+	*
+	*@param size Grid size written as dimt x dimx x dimy, for example 16x128x128
+	*@return File holding the text input data
+	*/
+	static synchronized File text(String size) throws IOException {
+		File file = new File(DIR, "input-"+size+".txt");
+		if(!file.exists()) {
+			DIR.mkdirs();
+			String[] dims = size.split("x");
+			int dimt = Integer.parseInt(dims[0]);
+			int dimx = Integer.parseInt(dims[1]);
+			int dimy = Integer.parseInt(dims[2]);
+			File tmp = new File(DIR, file.getName()+".tmp");
+			Random random = new Random(SEED);
+			try (BufferedWriter out = new BufferedWriter(new FileWriter(tmp), 1 << 16)) {
+				out.write(dimt+" "+dimx+" "+dimy+"\n");
+				long cells = (long)dimt*dimx*dimy;
+				for(long i = 0; i < cells; i++) {
+					out.write(String.format("%.6f %.6f %.6f\n", random.nextGaussian()*0.3, random.nextGaussian()*0.3, random.nextGaussian()*0.3));
+				}
+			}
+			tmp.renameTo(file);
+		}
+		return file;
+	}
+
+	/**
+	* Returns the binary grid file for the given size, generating it if needed
+	*
+	*@param size Grid size written as dimt x dimx x dimy, for example 16x128x128
+	*@return File holding the input data in the binary grid format
+	*/
+	static synchronized File grid(String size) throws Throwable {
+		File file = new File(DIR, "input-"+size+".grid");
+		if(!file.exists()) {
+			CloudDataHandle.convert(text(size).getPath(), file.getPath());
+		}
+		return file;
+	}
+}
@@ -0,0 +1,89 @@
+package cloudbench;
+
+import java.io.File;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each phase of a run: loading, the sequential reduction and classification, and writing the output
+ *
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = {"-Xmx4g", "--add-modules", "jdk.incubator.vector"})
+public class PhaseBenchmark {
+
+	@Param({"16x128x128", "64x256x256", "64x512x512"})
+	String size;
+
+	String textFile;
+	String gridFile;
+	File outputFile;
+	CloudDataHandle loaded; // instance holding the whole data set
+	Vector wind;
+
+	@Setup(Level.Trial)
+	public void setup() throws Throwable {
+		textFile = Datasets.text(size).getPath();
+		gridFile = Datasets.grid(size).getPath();
+		outputFile = File.createTempFile("cloudbench", ".txt");
+		loaded = new CloudDataHandle();
+		loaded.load(gridFile);
+		wind = loaded.findAverage();
+		loaded.getClouds();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		outputFile.delete();
+	}
+
+	@Benchmark
+	public Object readText() throws Throwable {
+		CloudDataHandle cd = new CloudDataHandle();
+		cd.readData(textFile);
+		return cd;
+	}
+
+	@Benchmark
+	public Object readGrid() throws Throwable {
+		CloudDataHandle cd = new CloudDataHandle();
+		cd.readData(gridFile);
+		return cd;
+	}
+
+	@Benchmark
+	public Vector findAverage() throws Throwable {
+		return loaded.findAverage();
+	}
+
+	@Benchmark
+	public void getClouds() throws Throwable {
+		loaded.getClouds();
+	}
+
+	@Benchmark
+	public void writeData() throws Throwable {
+		loaded.writeData(outputFile.getPath(), wind);
+	}
+}
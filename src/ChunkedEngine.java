@@ -0,0 +1,71 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Engine dividing the rows statically between the threads of a fixed thread pool
+ *
+ *<p>
+ *The rows are cut into one contiguous run per thread, as equal as whole rows allow, and each run is submitted to the pool as a single task. There is no work stealing, so the run time is that of the slowest thread, but each thread touches one contiguous part of the grid and scheduling costs one task per thread. The cutoff is not used. The threads are daemon threads, so an engine that is not closed does not keep the program running.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class ChunkedEngine implements ClassificationEngine {
+
+	ExecutorService executor;
+	int threads;
+
+	/**
+	*Creates an engine with a fixed pool of the given number of threads
+	*
+	*@param threads Number of threads, and of runs the rows are cut into
+	*/
+	public ChunkedEngine(int threads) {
+		this.threads = threads;
+		executor = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "chunked-engine");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public double[] classify(CloudGrid grid, PackedClassification classification, int slices, int cutoff, boolean simd, int radius, WindSums sums) {
+		int rows = slices*grid.dimx;
+		List<Callable<Void>> runs = new ArrayList<Callable<Void>>();
+		for(int i = 0; i < threads; i++) {
+			int lo = (int)((long)rows*i/threads), hi = (int)((long)rows*(i+1)/threads);
+			runs.add(() -> {
+				ClassificationEngine.classifyRows(grid, classification, lo, hi, simd, radius, sums);
+				return null;
+			});
+		}
+		try {
+			for(Future<Void> run : executor.invokeAll(runs)) {
+				run.get();
+			}
+		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Classification task failed", e);
+		}
+		return sums.total(slices);
+	}
+
+	public String name() {
+		return "pool";
+	}
+
+	public int parallelism() {
+		return threads;
+	}
+
+	public void close() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,94 @@
+
+/**
+ * Strategy for running the classification of a grid in parallel and reducing its wind sums
+ *
+ *<p>
+ *Every engine divides the grid into runs of whole rows, classifies each run with CloudKernel and sums its wind values into the blocks of a WindSums instance. Rows are block boundaries of WindSums and start a new byte of PackedClassification, so runs never share a sum or a packed byte, and the wind reduced from the blocks has the same bits whichever engine ran and with how many threads. Engines only differ in how the runs are made and scheduled:
+ *</p>
+ *<ul>
+ *<li>forkjoin: the recursive WriteClouds or TiledClouds thread classes on a ForkJoinPool of its own</li>
+ *<li>stream: a parallel IntStream over runs of about cutoff gridpoints, run inside a ForkJoinPool of the given parallelism</li>
+ *<li>pool: a fixed thread pool given one equal, contiguous run per thread</li>
+ *<li>virtual: one virtual thread per time slice, at most parallelism running at once</li>
+ *</ul>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public interface ClassificationEngine {
+
+	String[] NAMES = {"forkjoin", "stream", "pool", "virtual"};
+
+	/**
+	* Classifies the first time slices of a grid and reduces their wind sums
+	*
+	*@param grid Grid holding the wind and uplift values
+	*@param classification Packed classification that cloud types are written to
+	*@param slices Number of time slices to classify
+	*@param cutoff Number of gridpoints below which work is not divided further
+	*@param simd Whether to classify using SimdKernel rather than the scalar kernel
+	*@param radius Neighbourhood radius, 1 for the 3x3 neighbourhood
+	*@param sums Partial sums the wind values are added into
+	*@return Array holding the sum of the x values and the sum of the y values
+	*/
+	double[] classify(CloudGrid grid, PackedClassification classification, int slices, int cutoff, boolean simd, int radius, WindSums sums);
+
+	/**
+	* Returns the name the engine is selected by
+	*
+	*@return String holding one of NAMES
+	*/
+	String name();
+
+	/**
+	* Returns the number of threads the engine runs work on
+	*
+	*@return Integer value representing the parallelism
+	*/
+	int parallelism();
+
+	/**
+	* Stops the threads of the engine once it is no longer needed
+	*/
+	void close();
+
+	/**
+	* Creates the engine of the given name
+	*
+	*@param name One of NAMES
+	*@param parallelism Number of threads, or 0 for the number of processors
+	*@param tiled Whether the forkjoin engine divides work using TiledClouds rather than WriteClouds
+	*@return ClassificationEngine of the given name
+	*@throws IllegalArgumentException If the name is not one of NAMES
+	*/
+	static ClassificationEngine create(String name, int parallelism, boolean tiled) {
+		int threads = (parallelism > 0) ? parallelism : Runtime.getRuntime().availableProcessors();
+		switch(name) {
+			case "forkjoin": return new ForkJoinEngine(threads, tiled);
+			case "stream": return new StreamEngine(threads);
+			case "pool": return new ChunkedEngine(threads);
+			case "virtual": return new VirtualThreadEngine(threads);
+			default: throw new IllegalArgumentException("Unknown engine "+name);
+		}
+	}
+
+	/**
+	* Classifies a run of whole rows and sums its wind values, the sequential work shared by the engines
+	*
+	*@param grid Grid holding the wind and uplift values
+	*@param classification Packed classification that cloud types are written to
+	*@param lo First row, numbered t*dimx + x
+	*@param hi Row after the last one
+	*@param simd Whether to classify using SimdKernel rather than the scalar kernel
+	*@param radius Neighbourhood radius, 1 for the 3x3 neighbourhood
+	*@param sums Partial sums the wind values are added into
+	*/
+	static void classifyRows(CloudGrid grid, PackedClassification classification, int lo, int hi, boolean simd, int radius, WindSums sums) {
+		if(lo >= hi) {
+			return;
+		}
+		CloudKernel.create(grid, simd, radius).classifyRange(lo*grid.dimy, hi*grid.dimy, classification);
+		sums.sumRange(grid, lo*grid.dimy, hi*grid.dimy);
+		RunMetrics.leaf((long)(hi-lo)*grid.dimy);
+	}
+}
@@ -0,0 +1,374 @@
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long-running service that classifies datasets submitted as jobs, reusing one warm JVM for every job
+ *
+ *<p>
+ *Starting a new java CloudData process for every dataset pays for JVM startup, class loading and JIT compilation each time, which is most of the run time on small grids. The service starts once, warms up the classification kernels on a small synthetic grid, and then runs jobs read one per line from standard input, or from clients connecting to a port on the loopback address.
+ *</p>
+ *<p>
+ *A job line holds the same arguments as java CloudData: input data file, output data file, an optional correct output data file, and the -s, -v, -k, -d, -c, -f, -n, -b, -r, -e and -a flags. Jobs given any other flag are rejected. File names may not contain spaces. Several jobs run at once, each on its own ForkJoinPool of limited parallelism. Pools are created when the service starts and reused by later jobs. Jobs wait in a bounded queue, and are rejected with a busy reply when it is full. Each job is answered with a single line:
+ *ok [job id] [input file] [milliseconds] [average x wind] [average y wind], or error [job id] [input file] [message].
+ *The line stats replies with the job counts, the latency of the first (cold) job, the mean latency of later (warm) jobs and the throughput. The line quit stops the service once the queued jobs have finished.
+ *</p>
+ *<p>
+ *Usage: java ClassificationService [-p port] [-w concurrent jobs] [-q queued jobs] [-P parallelism per job]
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class ClassificationService {
+
+	static final int DEFAULT_QUEUE = 64; // jobs waiting for a free pool
+
+	int workers; // jobs run at once
+	int parallelism; // threads of each job's pool
+	ThreadPoolExecutor executor;
+	BlockingQueue<ForkJoinPool> pools; // warm pools not in use by a job
+	AtomicLong nextId = new AtomicLong(1);
+	long started = System.nanoTime();
+	LongAdder done = new LongAdder(), failed = new LongAdder(), rejected = new LongAdder();
+	LongAdder warmNanos = new LongAdder(), cells = new LongAdder();
+	volatile long coldNanos = -1; // latency of the first job, before the JIT has seen a real dataset
+	DataCache cache = DataCache.open(); // shared by the jobs given -a
+
+	/**
+	*Creates a service running the given number of jobs at once
+	*
+	*@param workers Number of jobs run at once
+	*@param queue Number of jobs allowed to wait for a free pool
+	*@param parallelism Number of threads used by each job
+	*/
+	public ClassificationService(int workers, int queue, int parallelism) {
+		this.workers = workers;
+		this.parallelism = parallelism;
+		executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queue));
+		pools = new ArrayBlockingQueue<ForkJoinPool>(workers);
+		for(int i = 0; i < workers; i++) {
+			pools.add(new ForkJoinPool(parallelism));
+		}
+	}
+
+	/**
+	* Classifies a small synthetic grid with each kernel and decomposition, so the kernels are compiled before the first job arrives
+	*/
+	public void warmUp() {
+		CloudGrid grid = new CloudGrid(4, 96, 96);
+		for(int pos = 0; pos < grid.size(); pos++) {
+			grid.set(pos, Math.sin(pos*0.37), Math.cos(pos*0.11), Math.sin(pos*0.05));
+		}
+		CloudData cd = new CloudData();
+		cd.grid = grid;
+		cd.dimt = grid.dimt; cd.dimx = grid.dimx; cd.dimy = grid.dimy;
+		cd.scaledt = grid.dimt;
+		cd.classification = new PackedClassification(grid.dimt, grid.dimx, grid.dimy);
+		cd.pool = pools.peek();
+		for(int i = 0; i < 20; i++) {
+			cd.simd = CloudKernel.simdAvailable() && (i%2 == 1);
+			cd.tiled = (i%4 >= 2);
+			cd.analyseData(0);
+		}
+	}
+
+	/**
+	* Queues a job, calling back with its reply line once it has run
+	*
+	*@param line Arguments of the job
+	*@param reply Receives the reply line
+	*/
+	public void submit(String line, java.util.function.Consumer<String> reply) {
+		long id = nextId.getAndIncrement();
+		String[] args = line.trim().split("\\s+");
+		RunOptions opts;
+		try {
+			opts = RunOptions.parse(args, false);
+			if(opts.benchmark) {
+				throw new IllegalArgumentException("Benchmarking is not available in service jobs");
+			}
+			if(opts.engine != null) {
+				throw new IllegalArgumentException("Jobs run on the service pools, so engines cannot be chosen");
+			}
+			if(opts.processes > 0) {
+				throw new IllegalArgumentException("Jobs run on the service pools, so -p is not available in service jobs");
+			}
+			if(opts.outOfCore) {
+				throw new IllegalArgumentException("Out-of-core classification is not available in service jobs");
+			}
+			if(opts.metrics != null || opts.jmx) {
+				throw new IllegalArgumentException("Run metrics are shared by all jobs, so -m and -j are not available in service jobs");
+			}
+		}
+		catch (IllegalArgumentException e) {
+			failed.increment();
+			reply.accept("error "+id+" "+args[0]+" "+e.getMessage());
+			return;
+		}
+		if(opts.simd && !CloudKernel.simdAvailable()) {
+			opts.simd = false;
+		}
+		try {
+			executor.execute(() -> reply.accept(run(id, opts)));
+		}
+		catch (RejectedExecutionException e) {
+			rejected.increment();
+			reply.accept("busy "+id+" "+opts.input);
+		}
+	}
+
+	/**
+	* Runs one job on a free warm pool
+	*
+	*@return String holding the reply line
+	*/
+	String run(long id, RunOptions opts) {
+		ForkJoinPool pool = null;
+		long start = System.nanoTime();
+		try {
+			pool = pools.take();
+			Vector<Double> wind = classify(opts, pool);
+			long nanos = System.nanoTime() - start;
+			synchronized(this) {
+				if(coldNanos < 0) {
+					coldNanos = nanos;
+				}
+				else {
+					warmNanos.add(nanos);
+				}
+			}
+			done.increment();
+			return String.format("ok %d %s %.3f %f %f", id, opts.input, nanos/1e6, wind.get(0), wind.get(1));
+		}
+		catch (Exception e) {
+			failed.increment();
+			return "error "+id+" "+opts.input+" "+e.getMessage();
+		}
+		finally {
+			if(pool != null) {
+				pools.add(pool);
+			}
+		}
+	}
+
+	/**
+	* Classifies a dataset and writes its output, as java CloudData would without the sequential run
+	*
+	*@param opts Options of the job
+	*@param pool Pool the job runs on
+	*@return Vector of doubles representing the average x and y wind values
+	*@throws IOException If a file cannot be read or written, or the output does not match the correct output data file
+	*/
+	Vector<Double> classify(RunOptions opts, ForkJoinPool pool) throws IOException {
+		if(opts.stream || opts.pipeline) {
+			SliceStreamer streamer = opts.pipeline ? new SlicePipeline(pool, opts.simd, opts.cutoff, opts.autoCutoff) : new SliceStreamer(pool, opts.simd, opts.cutoff, opts.autoCutoff);
+			streamer.radius = opts.radius;
+			Vector<Double> wind = streamer.run(opts.input, opts.output);
+			return wind;
+		}
+		CloudData cd = new CloudData();
+		cd.pool = pool;
+		cd.simd = opts.simd;
+		cd.tiled = opts.tiled;
+		cd.radius = opts.radius;
+		cd.float32 = opts.float32;
+		cd.cache = opts.cache ? cache : null;
+		Vector<Double> wind = cd.readCachedResult(opts.input);
+		if(wind == null) {
+			cd.readData(opts.input);
+			if(cd.classification == null) {
+				throw new IOException("Unable to read "+opts.input);
+			}
+			cd.scaledt = cd.dimt;
+			cd.cutoff = opts.autoCutoff ? cd.tuneCutoff() : opts.cutoff;
+			wind = cd.analyseData(cd.cutoff);
+			cd.storeResult(opts.input, wind);
+		}
+		cells.add(cd.dim());
+		if(opts.correct != null) {
+			cd.reportLimit = opts.reportLimit;
+			cd.failFast = opts.failFast;
+			cd.readCorrectData(opts.correct);
+			if(cd.checkClassification == null) {
+				throw new IOException("Unable to read "+opts.correct);
+			}
+			cd.checkOutput(wind);
+			if(!cd.isCorrect) {
+				throw new IOException("Output does not match "+opts.correct);
+			}
+		}
+		if(opts.binary) {
+			ResultFile.write(opts.output, cd.classification, cd.scaledt, wind);
+		}
+		else {
+			CloudWriter.write(opts.output, cd.classification, cd.scaledt, wind, pool);
+		}
+		return wind;
+	}
+
+	/**
+	* Describes the jobs run so far
+	*
+	*@return String holding the stats reply line
+	*/
+	public String stats() {
+		long count = done.sum();
+		double seconds = (System.nanoTime() - started)/1e9;
+		double warm = (count > 1) ? warmNanos.sum()/1e6/(count-1) : 0;
+		return String.format("stats done=%d failed=%d rejected=%d queued=%d cold_ms=%.3f warm_mean_ms=%.3f jobs_per_s=%.3f cells_per_s=%.0f cache_hits=%d cache_misses=%d",
+			count, failed.sum(), rejected.sum(), executor.getQueue().size(), (coldNanos < 0) ? 0 : coldNanos/1e6, warm, count/seconds, cells.sum()/seconds, RunMetrics.cacheHits.sum(), RunMetrics.cacheMisses.sum());
+	}
+
+	/**
+	* Stops accepting jobs and waits for those already queued
+	*/
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for(ForkJoinPool pool : pools) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	* Reads job lines until quit or the end of input, writing replies as jobs finish
+	*
+	*@return Boolean value indicating whether quit was received
+	*/
+	boolean serve(BufferedReader in, PrintWriter out) throws IOException {
+		java.util.function.Consumer<String> reply = line -> {
+			synchronized(out) {
+				out.println(line);
+				out.flush();
+			}
+		};
+		String line;
+		while((line = in.readLine()) != null) {
+			line = line.trim();
+			if(line.isEmpty()) {
+				continue;
+			}
+			if(line.equals("quit")) {
+				return true;
+			}
+			if(line.equals("stats")) {
+				reply.accept(stats());
+			}
+			else {
+				submit(line, reply);
+			}
+		}
+		return false;
+	}
+
+	/**
+	* Starts the service, reading jobs from standard input or from clients connecting to the given port
+	*
+	*@param args Flags described in the class comment
+	*/
+	public static void main(String[] args) {
+		int port = -1;
+		int workers = 2;
+		int queue = DEFAULT_QUEUE;
+		int parallelism = -1;
+		try {
+			for(int i = 0; i < args.length; i++) {
+				int value = Integer.parseInt(args[i+1]);
+				switch(args[i++]) {
+					case "-p": port = value; break;
+					case "-w": workers = value; break;
+					case "-q": queue = value; break;
+					case "-P": parallelism = value; break;
+					default: throw new IllegalArgumentException();
+				}
+			}
+			if(workers < 1 || queue < 1) {
+				throw new IllegalArgumentException();
+			}
+		}
+		catch (RuntimeException e) {
+			System.out.println("Usage: java ClassificationService [-p port] [-w concurrent jobs] [-q queued jobs] [-P parallelism per job]");
+			return;
+		}
+		if(parallelism < 1) {
+			parallelism = Math.max(1, Runtime.getRuntime().availableProcessors()/workers);
+		}
+
+		// replies go to standard output, so progress messages of the jobs are sent to standard error
+		PrintStream replies = System.out;
+		System.setOut(System.err);
+		ClassificationService service = new ClassificationService(workers, queue, parallelism);
+		service.warmUp();
+		System.out.println("Service ready: "+workers+" concurrent jobs, "+parallelism+" threads each");
+		try {
+			if(port < 0) {
+				service.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+					new PrintWriter(new OutputStreamWriter(replies, StandardCharsets.UTF_8)));
+			}
+			else {
+				ServerSocket server = null;
+				try {
+					server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+					System.out.println("Listening on port "+server.getLocalPort());
+					while(true) {
+						Socket client = server.accept();
+						ServerSocket listening = server; // closed by the client sending quit, which ends accept
+						Thread handler = new Thread(() -> {
+							try (client) {
+								PrintWriter out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+								if(service.serve(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)), out)) {
+									service.shutdown();
+									listening.close();
+								}
+							}
+							catch (IOException e) {
+								System.out.println("Client connection closed: "+e.getMessage());
+							}
+						});
+						handler.setDaemon(true); // an open client connection does not keep the service running after quit
+						handler.start();
+					}
+				}
+				catch (IOException e) {
+					if(!service.executor.isShutdown()) {
+						System.out.println("Unable to accept connections on port "+port);
+						e.printStackTrace();
+					}
+				}
+				finally {
+					if(server != null) {
+						server.close();
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Unable to read jobs");
+			e.printStackTrace();
+		}
+		service.shutdown();
+	}
+}
@@ -2,9 +2,9 @@
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Scanner;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.util.Vector;
 
 import java.util.concurrent.ForkJoinPool;
@@ -22,16 +22,29 @@ import java.util.concurrent.ForkJoinPool;
  */
 public class CloudData {
 	
-	Vector<Double> [][][] advection; // in-plane regular grid of wind vectors, that evolve over time
-	double [][][] convection; // vertical air movement strength, that evolves over time
-	int [][][] classification; // cloud type per grid point, evolving over time
+	CloudGrid grid; // in-plane wind vectors and vertical air movement strength, that evolve over time
+	FloatGrid floatGrid; // the same values as 32-bit floats, held instead of grid in float32 mode
+	PackedClassification classification; // cloud type per grid point, evolving over time, packed 2 bits per grid point
 	int dimx, dimy, dimt; // data dimensions
 	Vector<Double> pervailingWind;
 	Vector<Double> checkWind; //used to check against correct output
-	int [][][] checkClassification; // cloud type per grid point, evolving over time
+	PackedClassification checkClassification; // cloud type per grid point, evolving over time
 	int dx, dy, dt; // data dimensions of correct output
 	int scaledt = 0;
 	boolean isCorrect = true; //flag to check output is correct
+	boolean simd = false; //classify using SimdKernel
+	boolean tiled = false; //divide work using TiledClouds rather than WriteClouds
+	int cutoff = 0; //sequential cutoff used for the run, 0 for the default of the thread class
+	WindSums sums; //partial wind sums, kept between runs on grids of the same shape
+	int reportLimit = OutputVerifier.DEFAULT_LIMIT; //mismatching gridpoints listed when output is incorrect
+	boolean failFast = false; //stop verifying at the first mismatch
+	ForkJoinPool pool = fjPool; //pool running the thread classes, a service job gives each run its own
+	String inputFile; //name of the file the grid was read from
+	boolean binary = false; //write output in the binary result format of ResultFile
+	int radius = 1; //neighbourhood radius averaged over, 1 for the 3x3 neighbourhood
+	boolean float32 = false; //store and classify the values as 32-bit floats using FloatKernel
+	ClassificationEngine engine; //engine classifying the grid, or null for the thread classes on pool
+	DataCache cache; //on-disk cache of parsed files and results, or null to parse and classify on every run
 	
 	static double EPSILON = 0.000001;
 	static int datasize = 512;
@@ -75,66 +88,190 @@ public class CloudData {
   	/**
    	* Reads in text file and inserts data into corresponding 3D arrays
   	*
+  	* The file is parsed in parallel chunks by TextParser, writing values straight into the grid arrays.
+  	* Files in the binary grid format written by GridFile are detected and memory-mapped instead of parsed
+  	* In float32 mode the values are loaded straight into a FloatGrid
+  	* With a cache, a text file parsed by an earlier run is loaded from its stored grid file instead, and a newly parsed grid is stored
+  	*
    	*@param filename Name of file to read data from
    	*/
 	void readData(String fileName) {
+		inputFile = fileName;
+		File entry = GridFile.isGridFile(fileName) ? null : cacheEntry(fileName, "grid");
+		if(entry != null && cache.lookup(entry)) {
+			fileName = entry.getPath();
+			entry = null;
+		}
+		if(float32) {
+			readFloatData(fileName);
+			return;
+		}
+		if(GridFile.isGridFile(fileName)) {
+			readGridFile(fileName);
+			return;
+		}
 		try {
-			Scanner sc = new Scanner(new File(fileName), "UTF-8");
+			TextParser parser = new TextParser(fileName, pool);
       			System.out.println("Loading Data");
 
 			// input grid dimensions and simulation duration in timesteps
-			dimt = sc.nextInt();
-			dimx = sc.nextInt();
-			dimy = sc.nextInt();
+			int[] dims = TextParser.dimensions(parser.header(3));
+			dimt = dims[0];
+			dimx = dims[1];
+			dimy = dims[2];
 
 			// initialize and load advection (wind direction and strength) and convection
-			advection = new Vector[dimt][dimx][dimy];
-			convection = new double[dimt][dimx][dimy];
-			for(int t = 0; t < dimt; t++)
-				for(int x = 0; x < dimx; x++)
-					for(int y = 0; y < dimy; y++){
-						advection[t][x][y] = new Vector();
-						advection[t][x][y].add(sc.nextDouble());
-						advection[t][x][y].add(sc.nextDouble());
-						convection[t][x][y] = sc.nextDouble();
-					}
+			grid = new CloudGrid(dimt, dimx, dimy);
+			long tokens = parser.parse(new TextParser.GridSink(grid, 3));
+			parser.close();
+			if(tokens != 3 + 3L*grid.size()) {
+				throw new java.util.InputMismatchException("Expected "+(3L*grid.size())+" values but found "+(tokens-3));
+			}
+
+			classification = new PackedClassification(dimt, dimx, dimy);
+			if(entry != null) {
+				cache.store(entry, f -> GridFile.write(grid, f));
+			}
+		}
+		catch (IOException e){
+			System.out.println("Unable to open input file "+fileName);
+			e.printStackTrace();
+		}
+		catch (NumberFormatException | java.util.InputMismatchException e){
+			System.out.println("Malformed input file "+fileName);
+			e.printStackTrace();
+		}
+	}
+
+  	/**
+   	* Loads data from a file in the binary grid format by memory-mapping it
+  	*
+   	*@param fileName Name of file to read data from
+   	*/
+	void readGridFile(String fileName) {
+		try {
+      			System.out.println("Loading Data");
+			grid = GridFile.load(fileName);
+			dimt = grid.dimt;
+			dimx = grid.dimx;
+			dimy = grid.dimy;
+			classification = new PackedClassification(dimt, dimx, dimy);
+		}
+		catch (IOException e){
+			System.out.println("Unable to open input file "+fileName);
+			e.printStackTrace();
+		}
+	}
 
-			classification = new int[dimt][dimx][dimy];
-			sc.close();
+  	/**
+   	* Loads data from a text input file or a binary grid file into a grid of 32-bit floats
+  	*
+   	*@param fileName Name of file to read data from
+   	*/
+	void readFloatData(String fileName) {
+		try {
+      			System.out.println("Loading Data");
+			floatGrid = FloatGrid.load(fileName, pool);
+			dimt = floatGrid.dimt;
+			dimx = floatGrid.dimx;
+			dimy = floatGrid.dimy;
+			classification = new PackedClassification(dimt, dimx, dimy);
 		}
 		catch (IOException e){
 			System.out.println("Unable to open input file "+fileName);
 			e.printStackTrace();
 		}
-		catch (java.util.InputMismatchException e){
+		catch (NumberFormatException | java.util.InputMismatchException e){
 			System.out.println("Malformed input file "+fileName);
 			e.printStackTrace();
 		}
 	}
 
+  	/**
+   	* Returns the cache entry of the given kind for a file, or null when there is no cache
+   	*
+   	*@param fileName Name of the file the entry is made from
+   	*@param kind Kind of entry
+   	*@return File of the entry, or null if there is no cache or the file cannot be read
+   	*/
+	File cacheEntry(String fileName, String kind) {
+		if(cache == null || fileName == null) {
+			return null;
+		}
+		try {
+			return cache.entry(cache.key(fileName), kind);
+		}
+		catch (IOException e) {
+			return null; //reported when the file itself is read
+		}
+	}
+
+  	/**
+   	* Names the kind of cache entry holding results, which depend on the options changing the classification
+   	*
+   	*@return String naming the radius and precision of the run
+   	*/
+	String resultKind() {
+		return "result-r"+radius+(float32 ? "-float" : "");
+	}
+
+  	/**
+   	* Loads the result of an earlier run on the same input file with the same options, if the cache holds one
+   	*
+   	*@param fileName Name of the input file
+   	*@return Vector of doubles representing the average x and y wind values, or null if no result is stored
+   	*/
+	Vector<Double> readCachedResult(String fileName) {
+		File entry = cacheEntry(fileName, resultKind());
+		if(entry == null || !cache.lookup(entry)) {
+			return null;
+		}
+		try {
+			Vector<Double> wind = new Vector<Double>();
+			classification = ResultFile.read(entry.getPath(), wind);
+			dimt = classification.dimt;
+			dimx = classification.dimx;
+			dimy = classification.dimy;
+			scaledt = dimt;
+			inputFile = fileName;
+			return wind;
+		}
+		catch (IOException e) {
+			System.out.println("Unable to read cached result "+entry);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+  	/**
+   	* Stores the result of classifying every time slice of the input file in the cache
+   	*
+   	*@param fileName Name of the input file
+   	*@param wind Vector containing average wind values
+   	*/
+	void storeResult(String fileName, Vector<Double> wind) {
+		File entry = cacheEntry(fileName, resultKind());
+		if(entry != null && scaledt == dimt) {
+			cache.store(entry, f -> ResultFile.write(f, classification, scaledt, wind));
+		}
+	}
+
   	/**
    	* Writes output data to text file
    	*
+   	* Time slices are formatted in parallel by CloudWriter, or stored packed by ResultFile when binary output was chosen
+   	*
    	*@param filename Name of file to write data to
    	*@param wind Vector containing average wind values
    	*/
-	void writeData(String fileName, Vector wind){
+	void writeData(String fileName, Vector<Double> wind){
 		try {
-			FileWriter fileWriter = new FileWriter(fileName);
-			PrintWriter printWriter = new PrintWriter(fileWriter);
-			printWriter.printf("%d %d %d\n", scaledt, dimx, dimy);
-			printWriter.printf("%f %f\n", wind.get(0), wind.get(1));
-
-			for(int t = 0; t < (scaledt); t++){
-				for(int x = 0; x < dimx; x++){
-					for(int y = 0; y < dimy; y++){
-						printWriter.printf("%d ", classification[t][x][y]);
-					}
-				 }
-				 printWriter.printf("\n");
+			if(binary) {
+				ResultFile.write(fileName, classification, scaledt, wind);
+			}
+			else {
+				CloudWriter.write(fileName, classification, scaledt, wind, pool);
 			}
-
-			printWriter.close();
 		}
 		catch (IOException e){
 			System.out.println("Unable to open output file "+fileName);
@@ -150,19 +287,12 @@ public class CloudData {
   	public Vector<Double> findAverage() {
 		//calculate  average wind vector for all air layer elements and time steps
   		Vector<Double> wind = new Vector();
-  		double xsum = 0;
-  		double ysum = 0;
-  		int numPoints = 0;
-  		for(int t = 0; t < (scaledt); t++)
-  			for(int x = 0; x < dimx; x++)
-  				for(int y = 0; y < dimy; y++){
-  					//sum all x wind values
-  					xsum += advection[t][x][y].get(0);
-  					//sum all y wind values
-  					ysum += advection[t][x][y].get(1);
-  					//count total number of data points
-  					numPoints++;
-  				}
+  		int numPoints = dim();
+  		WindSums s = sumsFor(grid);
+  		s.sumRange(grid, 0, numPoints); //sum all x and y wind values, block by block as the thread classes do
+  		double[] total = s.total(scaledt);
+  		double xsum = total[0];
+  		double ysum = total[1];
   		//divide by number of entries/grid points
   		double xav = xsum/numPoints;
   		double yav = ysum/numPoints;
@@ -184,13 +314,7 @@ public class CloudData {
     	public Vector<Double> analyseData(int cutoff) {
 		//calculate  average wind vector for all air layer elements and time steps
 		Vector<Double> wind = new Vector();
-		Vector<Double> sums = new Vector();
-      		if(cutoff==0) {
-        		sums = fjPool.invoke(new WriteClouds(classification, advection, convection, 0,dim()));
-      		}
-      		else {
-        		sums = fjPool.invoke(new WriteClouds(classification, advection, convection, 0,dim(), cutoff)); //extra parameter for benchmarking
-      		}
+		Vector<Double> sums = classify(grid, classification, scaledt, cutoff);
       		double xsum = sums.get(0);
       		double ysum = sums.get(1);
 		
@@ -206,6 +330,75 @@ public class CloudData {
 	}
 	
 	
+	/**
+    	* Classifies the first time slices of a grid and sums their wind values using parallelization
+    	*
+    	*@param g Grid holding the wind and uplift values
+    	*@param clas Packed classification that cloud types are written to
+    	*@param slices Number of time slices to classify
+    	*@param cutoff Sequential cutoff of the thread class, or 0 for the default
+    	*@return Vector object containing the sum of the x values and the sum of the y values, the same at any cutoff and in either decomposition
+    	*/
+    	Vector<Double> classify(CloudGrid g, PackedClassification clas, int slices, int cutoff) {
+      		if(cutoff==0) {
+        		cutoff = WriteClouds.SEQUENTIAL_CUTOFF;
+      		}
+      		if(float32) { //FloatKernel classifies floatGrid in its own row tasks
+        		double[] total = FloatKernel.classify(floatGrid, clas, slices, cutoff, radius, pool);
+        		Vector<Double> sums = new Vector<Double>();
+        		sums.add(total[0]);
+        		sums.add(total[1]);
+        		return sums;
+      		}
+      		WindSums s = sumsFor(g);
+      		if(engine != null) {
+        		double[] total = engine.classify(g, clas, slices, cutoff, simd, radius, s);
+        		Vector<Double> sums = new Vector<Double>();
+        		sums.add(total[0]);
+        		sums.add(total[1]);
+        		return sums;
+      		}
+      		if(tiled) {
+        		pool.invoke(new TiledClouds(clas, g, 0, slices, cutoff, simd, s, radius));
+      		}
+      		else {
+        		pool.invoke(new WriteClouds(clas, g, 0, slices*g.dimx*g.dimy, cutoff, simd, s, radius));
+      		}
+      		double[] total = s.total(slices);
+      		Vector<Double> sums = new Vector<Double>();
+      		sums.add(total[0]);
+      		sums.add(total[1]);
+      		return sums;
+	}
+
+
+	/**
+    	* Returns the partial wind sums for a grid, reusing those of the previous run when the shape has not changed
+    	*
+    	*@param g Grid whose wind values will be summed
+    	*@return WindSums sized for the grid
+    	*/
+    	WindSums sumsFor(CloudGrid g) {
+      		if(sums == null || !sums.fits(g)) {
+        		sums = new WindSums(g);
+      		}
+      		return sums;
+	}
+
+
+	/**
+    	* Finds the sequential cutoff for this machine and data size, calibrating it on a sample of the time slices if no earlier run has stored one
+    	*
+    	*@return Integer value representing the sequential cutoff to use
+    	*/
+    	public int tuneCutoff() {
+      		String key = CutoffTuner.key(dim(), float32 ? "float" : simd ? "simd" : "scalar",
+      			(engine != null) ? engine.name()+engine.parallelism() : tiled ? "tiled" : "linear");
+      		int sample = CutoffTuner.sampleSlices(dimx*dimy, scaledt);
+      		return CutoffTuner.cutoffFor(key, c -> classify(grid, classification, sample, c));
+	}
+
+
 	/**
 	* Checks whether the given dimensions are within the bounds of the 3D array
     	*
@@ -231,57 +424,19 @@ public class CloudData {
     	*@return Integer value representing the type of cloud likely to form. 0 = Cumulus, 1= Striated stratus 2 = Amorphous stratus.
     	*/
     	public int findCloud(int time, int x, int y) {
-      		//find average of x and y components as before - but only for local elements
-      		double xsum = 0;
-      		double ysum = 0;
-      		int numPoints = 0;
-      		//use indexes to sum correct blocks
-      		//check for boundaries
-      		boolean inBounds;
-      		for(int i = x-1; i <= x+1; i++)  //-1 for 8 neighbours
-        		for(int j = y-1; j <= y+1; j++)	{
-          			inBounds = checkBounds(i, j);
-          			if(inBounds==true) {
-            				xsum += advection[time][i][j].get(0);
-            				ysum += advection[time][i][j].get(1);
-            				numPoints++;
-          			}
-        		}
-      		double xav = xsum/numPoints;
-      		double yav = ysum/numPoints;
-
-      		//magnitude
-      		double magnitude = Math.sqrt((xav*xav)+(yav*yav));
-      		//System.out.printf("Magnitude is %f\n", magnitude);
-      		int cloudType = 0;
-      		double uplift = convection[time][x][y]; //uplift value at the desired coordinate
-
-      		//assign to each air layer element an integer code (0, 1 or 2)
-      		//indicates the type of cloud that is likely to form in that location
-      		//classification for current element
-      		if (Math.abs(uplift) > magnitude) {
-        		cloudType = 0;
-		}
-      		else if ((magnitude > 0.2)&&(magnitude >= Math.abs(uplift))) {
-        		cloudType = 1;
-      		}
-     		else {
-        		cloudType = 2;
-      		}
-      		classification[time][x][y] = cloudType;
+      		int cloudType = CloudKernel.findCloud(grid, time, x, y, radius);
+      		classification.set(time, x, y, cloudType);
       		return cloudType;
 	}
 
 
     	/**
     	* Finds cloud type for each value in the timeline grids
+    	*
+    	* Uses the separable neighbourhood sums of CloudKernel, giving the same classifications as findCloud
     	*/
     	public void getClouds() {
-      		for(int t = 0; t < (scaledt); t++)
-        		for(int x = 0; x < dimx; x++)
-          			for(int y = 0; y < dimy; y++){
-          				findCloud(t, x, y); // finds cloud type for this point and writes value to classification array
-				}
+      		CloudKernel.create(grid, simd, radius).classifyRange(0, dim(), classification); // finds cloud type for each point and writes value to classification array
 	}
 
 
@@ -289,34 +444,54 @@ public class CloudData {
     	/**
      	* Reads in text file of known correct output and inserts data into corresponding 3D arrays for use in verification of ouput
      	*
+     	* Files in the binary result format written by ResultFile are detected and read without parsing
+     	* With a cache, a text file parsed by an earlier run is read from its stored result file instead, and a newly parsed file is stored
+     	*
      	*@param correctFile Name of file to read correct output data from
      	*/
     	void readCorrectData(String correctFile){
 		try {
-        		Scanner sc = new Scanner(new File(correctFile), "UTF-8");
+			File entry = ResultFile.isResultFile(correctFile) ? null : cacheEntry(correctFile, "correct");
+			if(entry != null && cache.lookup(entry)) {
+				correctFile = entry.getPath();
+				entry = null;
+			}
+			if(ResultFile.isResultFile(correctFile)) {
+				checkWind = new Vector<Double>();
+				checkClassification = ResultFile.read(correctFile, checkWind);
+				dt = checkClassification.dimt;
+				dx = checkClassification.dimx;
+				dy = checkClassification.dimy;
+				return;
+			}
+        		TextParser parser = new TextParser(correctFile, pool);
 
         		// input grid dimensions and simulation duration in timesteps
-        		dt = sc.nextInt();
-        		dx = sc.nextInt();
-        		dy = sc.nextInt();
+        		String[] header = parser.header(5);
+        		int[] dims = TextParser.dimensions(header);
+        		dt = dims[0];
+        		dx = dims[1];
+        		dy = dims[2];
 
         		// initialize and load advection (wind direction and strength) and convection
         		checkWind = new Vector();
-        		checkWind.add(sc.nextDouble());
-        		checkWind.add(sc.nextDouble());
-        		checkClassification = new int[dt][dx][dy];
-        		for(int t = 0; t < dt; t++)
-          			for(int x = 0; x < dx; x++)
-            				for(int y = 0; y < dy; y++){
-              					checkClassification[t][x][y] = sc.nextInt();
-					}
-			sc.close();
+        		checkWind.add(Double.parseDouble(header[3]));
+        		checkWind.add(Double.parseDouble(header[4]));
+        		checkClassification = new PackedClassification(dt, dx, dy);
+        		long tokens = parser.parse(new TextParser.ClassificationSink(checkClassification, 5));
+        		parser.close();
+        		if(tokens != 5 + (long)dt*dx*dy) {
+        			throw new java.util.InputMismatchException("Expected "+((long)dt*dx*dy)+" values but found "+(tokens-5));
+        		}
+        		if(entry != null) {
+        			cache.store(entry, f -> ResultFile.write(f, checkClassification, dt, checkWind));
+        		}
 		}
 		catch (IOException e) {
 			System.out.println("Unable to open input file "+correctFile);
 			e.printStackTrace();
 		}
-      		catch (java.util.InputMismatchException e) {
+      		catch (NumberFormatException | java.util.InputMismatchException e) {
 			System.out.println("Malformed input file "+correctFile);
 			e.printStackTrace();
 		}
@@ -390,10 +565,225 @@ public class CloudData {
         			printWriter.printf("Average run took %f milliseconds\n", averageTime);
 			}
 			
+			//SIMD kernel against scalar kernel, both using Fork/Join
+			if(CloudKernel.simdAvailable()) {
+				printWriter.printf("Kernels\n");
+				System.out.println("Kernels\n");
+				boolean useSimd = simd;
+				float[] kernelTimes = new float[2];
+				for(int k = 0; k < 2; k++) {
+					simd = (k == 1);
+					float[] times = new float[7]; //run program 7 times but only average last 5
+					for (int i = 0; i < 7; i++) {
+						tick();
+						analyseData(0);
+						times[i] = tock();
+					}
+					kernelTimes[k] = findAvTime(times);
+					System.out.println((simd ? "SIMD" : "Scalar") + " average run took "+ kernelTimes[k] +" milliseconds");
+					printWriter.printf("%s average run took %f milliseconds\n", simd ? "SIMD" : "Scalar", kernelTimes[k]);
+				}
+				simd = useSimd;
+				System.out.println("SIMD speedup = " + (kernelTimes[0]/kernelTimes[1]));
+				printWriter.printf("SIMD speedup = %f\n", kernelTimes[0]/kernelTimes[1]);
+			}
+
+			//tiled against linear decomposition, across grid shapes holding the same values
+			printWriter.printf("Decompositions\n");
+			System.out.println("Decompositions\n");
+			boolean useTiled = tiled;
+			int[][] shapes = {{dimt, dimx, dimy}, {dimt, dimx*dimy/16, 16}, {dimt, 16, dimx*dimy/16}, {1, dimt*dimx, dimy}};
+			String[] shapeNames = {"Original", "Tall-thin", "Wide-short", "Single slice"};
+			for(int s = 0; s < shapes.length; s++) {
+				if(shapes[s][1] == 0 || shapes[s][2] == 0) {
+					continue; //grid too small for this shape
+				}
+				CloudGrid shaped = grid.reshape(shapes[s][0], shapes[s][1], shapes[s][2]);
+				PackedClassification clas = new PackedClassification(shaped.dimt, shaped.dimx, shaped.dimy);
+				float[] decompTimes = new float[2];
+				for(int d = 0; d < 2; d++) {
+					tiled = (d == 1);
+					float[] times = new float[7]; //run program 7 times but only average last 5
+					for (int i = 0; i < 7; i++) {
+						tick();
+						classify(shaped, clas, shaped.dimt, 0);
+						times[i] = tock();
+					}
+					decompTimes[d] = findAvTime(times);
+				}
+				String shape = shapeNames[s]+" "+shaped.dimt+"x"+shaped.dimx+"x"+shaped.dimy;
+				System.out.println(shape+": linear "+decompTimes[0]+" ms, tiled "+decompTimes[1]+" ms");
+				printWriter.printf("%s: linear %f ms, tiled %f ms\n", shape, decompTimes[0], decompTimes[1]);
+			}
+			tiled = useTiled;
+
+			//worker processes, each taking a range of time slices
+			printWriter.printf("Processes\n");
+			System.out.println("Processes\n");
+			File shardOutput = File.createTempFile("shards", ".txt");
+			float oneProcess = 0;
+			for(int p = 1; p <= 4; p *= 2) {
+				float[] times = new float[7]; //run program 7 times but only average last 5
+				for (int i = 0; i < 7; i++) {
+					tick();
+					new ShardCoordinator(p, simd, cutoff, false).run(inputFile, shardOutput.getPath());
+					times[i] = tock();
+				}
+				float averageTime = findAvTime(times);
+				if(p == 1) {
+					oneProcess = averageTime;
+				}
+				System.out.println(p+" processes: average run took "+averageTime+" milliseconds, speedup "+(oneProcess/averageTime));
+				printWriter.printf("%d processes: average run took %f milliseconds, speedup %f\n", p, averageTime, oneProcess/averageTime);
+			}
+			shardOutput.delete();
+
+			//whole file phased (read, classify, then write) against pipelined slices
+			printWriter.printf("Pipeline\n");
+			System.out.println("Pipeline\n");
+			File pipelineOutput = File.createTempFile("pipeline", ".txt");
+			float[] modeTimes = new float[2];
+			for(int m = 0; m < 2; m++) {
+				float[] times = new float[7]; //run program 7 times but only average last 5
+				for (int i = 0; i < 7; i++) {
+					tick();
+					if(m == 0) {
+						CloudData phased = new CloudData();
+						phased.simd = simd;
+						phased.tiled = tiled;
+						phased.readData(inputFile);
+						phased.scaledt = phased.dimt;
+						phased.writeData(pipelineOutput.getPath(), phased.analyseData(cutoff));
+					}
+					else {
+						new SlicePipeline(pool, simd, cutoff, false).run(inputFile, pipelineOutput.getPath());
+					}
+					times[i] = tock();
+				}
+				modeTimes[m] = findAvTime(times);
+			}
+			pipelineOutput.delete();
+			System.out.println("Phased: "+modeTimes[0]+" ms, pipelined: "+modeTimes[1]+" ms, speedup "+(modeTimes[0]/modeTimes[1]));
+			printWriter.printf("Phased: %f ms, pipelined: %f ms, speedup %f\n", modeTimes[0], modeTimes[1], modeTimes[0]/modeTimes[1]);
+
+			//neighbourhood radii, the running sums keeping the cost per gridpoint the same
+			printWriter.printf("Radius\n");
+			System.out.println("Radius\n");
+			int useRadius = radius;
+			int[] radii = {1, 2, 4, 8, 16};
+			for(int r = 0; r < radii.length; r++) {
+				radius = radii[r];
+				float[] times = new float[7]; //run program 7 times but only average last 5
+				for (int i = 0; i < 7; i++) {
+					tick();
+					analyseData(cutoff);
+					times[i] = tock();
+				}
+				float averageTime = findAvTime(times);
+				int width = 2*radius+1;
+				System.out.println(width+"x"+width+": average run took "+averageTime+" milliseconds, "+(averageTime*1e6/dim())+" ns per gridpoint");
+				printWriter.printf("%dx%d: average run took %f milliseconds, %f ns per gridpoint\n", width, width, averageTime, averageTime*1e6/dim());
+			}
+			radius = useRadius;
+
+			//whole grid on the heap against windows mapped from a grid file, of the default size and of one slice
+			printWriter.printf("Out-of-core\n");
+			System.out.println("Out-of-core\n");
+			File gridFile = File.createTempFile("grid", ".bin");
+			File coreOutput = File.createTempFile("core", ".bin");
+			GridFile.write(grid, gridFile.getPath());
+			String[] engines = {"In heap", "Mapped windows", "Mapped slices"};
+			for(int m = 0; m < engines.length; m++) {
+				float[] times = new float[7]; //run program 7 times but only average last 5
+				for (int i = 0; i < 7; i++) {
+					tick();
+					if(m == 0) {
+						CloudData heap = new CloudData();
+						heap.simd = simd;
+						heap.binary = true;
+						heap.readData(gridFile.getPath());
+						heap.scaledt = heap.dimt;
+						heap.writeData(coreOutput.getPath(), heap.analyseData(cutoff));
+					}
+					else {
+						OutOfCoreEngine engine = new OutOfCoreEngine(pool, simd, cutoff, false);
+						engine.windowBytes = (m == 1) ? OutOfCoreEngine.DEFAULT_WINDOW_BYTES : 1;
+						engine.run(gridFile.getPath(), coreOutput.getPath(), true);
+					}
+					times[i] = tock();
+				}
+				float averageTime = findAvTime(times);
+				System.out.println(engines[m]+": average run took "+averageTime+" milliseconds, "+(dim()/averageTime/1e3)+" million gridpoints per second");
+				printWriter.printf("%s: average run took %f milliseconds, %f million gridpoints per second\n", engines[m], averageTime, dim()/averageTime/1e3);
+			}
+			gridFile.delete();
+			coreOutput.delete();
+
+			//parsing the text input against loading the grid stored by the cache
+			if(!GridFile.isGridFile(inputFile)) {
+				printWriter.printf("Cache\n");
+				System.out.println("Cache\n");
+				File cacheDir = Files.createTempDirectory("cache").toFile();
+				String[] loads = {"Parsed", "Cached"};
+				for(int m = 0; m < loads.length; m++) {
+					float[] times = new float[7]; //run program 7 times but only average last 5
+					for (int i = 0; i < 7; i++) {
+						CloudData reader = new CloudData();
+						reader.cache = (m == 0) ? null : new DataCache(cacheDir, DataCache.DEFAULT_CAPACITY);
+						tick();
+						reader.readData(inputFile);
+						times[i] = tock();
+					}
+					float averageTime = findAvTime(times);
+					System.out.println(loads[m]+": average load took "+averageTime+" milliseconds");
+					printWriter.printf("%s: average load took %f milliseconds\n", loads[m], averageTime);
+				}
+				for(File f : new DataCache(cacheDir, 0).entries()) {
+					f.delete();
+				}
+				cacheDir.delete();
+			}
+
+			//every engine at each parallelism level, checked against the thread classes on the shared pool
+			printWriter.printf("Engines\n");
+			System.out.println("Engines\n");
+			ClassificationEngine useEngine = engine;
+			engine = null;
+			Vector<Double> expectedWind = analyseData(cutoff);
+			byte[] expected = classification.data.clone();
+			for(String name : ClassificationEngine.NAMES) {
+				float one = 0;
+				for(int p : ScalingStudy.levels(Runtime.getRuntime().availableProcessors())) {
+					engine = ClassificationEngine.create(name, p, tiled);
+					float[] times = new float[7]; //run program 7 times but only average last 5
+					Vector<Double> wind = null;
+					for (int i = 0; i < 7; i++) {
+						tick();
+						wind = analyseData(cutoff);
+						times[i] = tock();
+					}
+					engine.close();
+					float averageTime = findAvTime(times);
+					one = (p == 1) ? averageTime : one;
+					String same = (wind.equals(expectedWind) && java.util.Arrays.equals(classification.data, expected)) ? "identical" : "DIFFERENT";
+					System.out.println(name+" "+p+" threads: average run took "+averageTime+" milliseconds, speedup "+(one/averageTime)+", output "+same);
+					printWriter.printf("%s %d threads: average run took %f milliseconds, speedup %f, output %s\n", name, p, averageTime, one/averageTime, same);
+				}
+			}
+			engine = useEngine;
+
+			//float32 storage and arithmetic against the double precision path
+			printWriter.printf("Precision\n");
+			System.out.println("Precision\n");
+			PrecisionReport precision = PrecisionReport.compare(grid, dimt, radius, pool);
+			System.out.print(precision);
+			printWriter.print(precision);
+
 			//different sequential cut-offs
 			printWriter.printf("Sequential Cutoffs\n");
 			System.out.println("Sequential Cutoffs\n");
 			int[] cutoffs = {50, 500,5000,10000,20000,50000};
+			RunMetrics.reset();
 			for(int c = 0; c < cutoffs.length; c++) {
        				float[] times = new float[7]; //run program 7 times but only average last 5
         			Vector<Double> wind = new Vector();
@@ -404,16 +794,16 @@ public class CloudData {
            				//System.out.println("Run took "+ time +" seconds");
            				times[i] = time;
            				//check if correct outside timing block
-           				checkOutput(wind);
+           				checkOutput(wind, true);
 				}
 				float averageTime = findAvTime(times);
         			System.out.println("Cutoff = " + cutoffs[c]);
         			printWriter.printf("Cutoff = %d ", cutoffs[c]);
         			System.out.println("Average run took "+ averageTime +" milliseconds");
         			printWriter.printf("Average run took %f milliseconds ", averageTime);
-        			System.out.println("No. of threads " + WriteClouds.numThreads);
-        			printWriter.printf("No. of threads = %d\n", WriteClouds.numThreads);
-        			WriteClouds.numThreads = 0;
+        			System.out.println("No. of tasks forked " + RunMetrics.tasksForked.sum());
+        			printWriter.printf("No. of tasks forked = %d\n", RunMetrics.tasksForked.sum());
+        			RunMetrics.reset();
 			}
       			printWriter.close();
 		}
@@ -430,24 +820,27 @@ public class CloudData {
   	* @param wind Vector containing computed prevailing wind values to be verified
   	*/
     	public void checkOutput(Vector<Double> wind) {
-      		if(scalingFactor==1) {
-      			if (((wind.get(0)-checkWind.get(0) > EPSILON) | (wind.get(1)- checkWind.get(1) > EPSILON))) {
-   				isCorrect = false;
-   				System.out.println("Average wind does not match");
-			}
-		}
-   		if ((dimt!=dt)|(dimy!=dy)|(dimx!=dx)) {
-			isCorrect = false;
-   			System.out.println("Dimensions differ");
+      		checkOutput(wind, failFast);
+	}
+
+
+  	/**
+  	* Verifies that output is correct by comparison with known output data, comparing classifications in parallel using OutputVerifier
+  	*
+  	* @param wind Vector containing computed prevailing wind values to be verified
+  	* @param stopEarly Whether to stop comparing classifications at the first mismatch
+  	*/
+    	public void checkOutput(Vector<Double> wind, boolean stopEarly) {
+      		OutputVerifier verifier = new OutputVerifier(checkClassification, reportLimit, stopEarly);
+      		//wind is only known for the whole grid
+      		OutputVerifier.Report report = verifier.verify(pool, classification, scaledt, (scalingFactor==1) ? wind : null, checkWind, EPSILON);
+      		if ((dimt!=dt)|(dimy!=dy)|(dimx!=dx)) {
+			report.dimensionsMatch = false;
+   		}
+   		if(!report.isCorrect()) {
+   			isCorrect = false;
+   			System.out.print(report.summary());
    		}
-   		for(int t = 0; t < (scaledt); t++)
-   			for(int x = 0; x < (dx); x++)
-   				for(int y = 0; y < (dy); y++) {
-					if(classification[t][x][y]!= checkClassification[t][x][y]) {
-						isCorrect = false;
-   						System.out.println("Classification is incorrect");
-   					}
-   				}
    		if(isCorrect) {
    			System.out.println("Output is correct");
    		}
@@ -460,36 +853,182 @@ public class CloudData {
 	*<p>
     	* Additionally measures time taken for the prevailing wind and cloud types to be determined.
     	*</p>
-    	*@param args The first argument args[0] given in the command line is the name of the input file to read from. The second argument args[1] given in the command line is the name of the output file to write to.
+    	*@param args The first argument args[0] given in the command line is the name of the input file to read from. The second argument args[1] given in the command line is the name of the output file to write to. The third argument args[2] is the name of the correct output file to verify against. Flags are described in RunOptions.
     	*/
     	public static void main(String[] args){
 		
+		RunOptions opts;
+		try {
+			opts = RunOptions.parse(args);
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(RunOptions.usage());
+			return;
+		}
+
+		if(opts.simd && !CloudKernel.simdAvailable()) {
+			System.out.println("SIMD kernel unavailable, run with --add-modules jdk.incubator.vector. Using scalar kernel");
+			opts.simd = false;
+		}
+
+		RunMetrics.watch(fjPool);
+		if(opts.jmx) {
+			RunMetrics.registerMBean();
+		}
+
+		if(opts.stream || opts.pipeline) { //classify one time slice at a time
+			try {
+				System.out.println(opts.pipeline ? "Pipelining time slices" : "Streaming time slices");
+				tick(); //start timing
+				SliceStreamer streamer = opts.pipeline ? new SlicePipeline(fjPool, opts.simd, opts.cutoff, opts.autoCutoff) : new SliceStreamer(fjPool, opts.simd, opts.cutoff, opts.autoCutoff);
+				streamer.radius = opts.radius;
+				Vector<Double> wind = streamer.run(opts.input, opts.output);
+				System.out.println(tock()); //report streaming time
+			}
+			catch (IOException e) {
+				System.out.println("Unable to stream "+opts.input+" to "+opts.output);
+				e.printStackTrace();
+			}
+			catch (NumberFormatException | java.util.InputMismatchException e) {
+				System.out.println("Malformed input file "+opts.input);
+				e.printStackTrace();
+			}
+			printMetrics(opts.metrics);
+			return;
+		}
+
+		if(opts.outOfCore) { //classify windows of time slices mapped from a binary grid file
+			try {
+				System.out.println("Classifying out of core");
+				tick(); //start timing
+				OutOfCoreEngine engine = new OutOfCoreEngine(fjPool, opts.simd, opts.cutoff, opts.autoCutoff);
+				engine.radius = opts.radius;
+				engine.run(opts.input, opts.output, opts.binary);
+				System.out.println(tock()); //report out-of-core time
+			}
+			catch (IOException e) {
+				System.out.println("Unable to classify "+opts.input+" out of core");
+				e.printStackTrace();
+			}
+			printMetrics(opts.metrics);
+			return;
+		}
+
+		if(opts.processes > 0) { //divide time slices between worker processes
+			try {
+				System.out.println("Classifying with "+opts.processes+" worker processes");
+				tick(); //start timing
+				ShardCoordinator coordinator = new ShardCoordinator(opts.processes, opts.simd, opts.cutoff, opts.autoCutoff);
+				coordinator.radius = opts.radius;
+				coordinator.run(opts.input, opts.output);
+				System.out.println(tock()); //report multi-process time
+			}
+			catch (IOException e) {
+				System.out.println("Unable to classify "+opts.input+" using worker processes");
+				e.printStackTrace();
+			}
+			printMetrics(opts.metrics);
+			return;
+		}
+
 		CloudData cd = new CloudData();
        		cd.scalingFactor = 1; //set as 1 for standard operation
-       		cd.readData(args[0]); //read in data from input file
-       		cd.readCorrectData(args[2]); //read in correct output data to compare
+       		cd.simd = opts.simd;
+       		cd.tiled = opts.tiled;
+       		cd.cutoff = opts.cutoff;
+       		cd.reportLimit = opts.reportLimit;
+       		cd.failFast = opts.failFast;
+       		cd.binary = opts.binary;
+       		cd.radius = opts.radius;
+       		cd.float32 = opts.float32 && !opts.benchmark; //benchmarking compares both precisions on the double grid
+       		cd.cache = opts.cache ? DataCache.open() : null;
+       		Vector<Double> cached = opts.benchmark ? null : cd.readCachedResult(opts.input);
+       		if(cached != null) { //classified by an earlier run with the same options, so only verify and write
+       			System.out.println("Using cached result");
+       			System.out.println("Data size (no. of elements) = " + cd.dim());
+       			RunMetrics.Timer load = RunMetrics.start(RunMetrics.LOAD);
+       			cd.readCorrectData(opts.correct);
+       			load.stop();
+       			RunMetrics.Timer verify = RunMetrics.start(RunMetrics.VERIFY);
+       			cd.checkOutput(cached);
+       			verify.stop();
+       			RunMetrics.Timer write = RunMetrics.start(RunMetrics.WRITE);
+       			cd.writeData(opts.output, cached);
+       			write.stop();
+       			System.out.println(cd.cache.stats());
+       			printMetrics(opts.metrics);
+       			return;
+       		}
+       		if(opts.engine != null) {
+       			cd.engine = ClassificationEngine.create(opts.engine, opts.engineThreads, opts.tiled);
+       			System.out.println("Classifying with the "+cd.engine.name()+" engine, "+cd.engine.parallelism()+" threads");
+       		}
+       		RunMetrics.Timer load = RunMetrics.start(RunMetrics.LOAD);
+       		cd.readData(opts.input); //read in data from input file
+       		if(cd.classification == null) { //the reason has been printed by readData
+       			return;
+       		}
+       		cd.readCorrectData(opts.correct); //read in correct output data to compare
+       		load.stop();
        		cd.scaledt = (int)(Math.ceil(cd.dimt*cd.scalingFactor)); //set scaling factor to allow for different data sizes
 
-       		if(args.length == 4) {
-         		if(args[3].equals("-t")) {
-           			cd.benchMarking(); //run benchmarking tests
-			}
+       		if(opts.benchmark) {
+           		cd.benchMarking(); //run benchmarking tests
 		}
 		
 		else { //standard config
 			System.out.println("Data size (no. of elements) = " + cd.dim());
+			if(opts.autoCutoff) {
+				cd.cutoff = cd.tuneCutoff();
+			}
 			cd.tick(); //start timing
-			Vector wind = cd.analyseData(0); //run parallel analysis
+			RunMetrics.Timer classify = RunMetrics.start(RunMetrics.CLASSIFY);
+			Vector<Double> wind = cd.analyseData(cd.cutoff); //run parallel analysis
+			classify.stop();
 			float time = cd.tock();
 			System.out.println(time); //report parallel time
+           		RunMetrics.Timer verify = RunMetrics.start(RunMetrics.VERIFY);
            		cd.checkOutput(wind); //check parallel output is correct
-           		cd.tick(); //start timing
-           		wind = cd.findAverage(); //run sequential analysis
-           		cd.getClouds();
-           		time = cd.tock();
-           		System.out.println(time); //report sequential time
-           		cd.checkOutput(wind); //check sequential output is correct
-           		cd.writeData(args[1], wind); //write output data to a file
+           		verify.stop();
+           		cd.storeResult(opts.input, wind); //keep the result for later runs, if caching
+           		if(!cd.float32) { //the sequential method needs the double grid
+           			cd.tick(); //start timing
+           			RunMetrics.Timer sequential = RunMetrics.start(RunMetrics.SEQUENTIAL);
+           			wind = cd.findAverage(); //run sequential analysis
+           			cd.getClouds();
+           			sequential.stop();
+           			time = cd.tock();
+           			System.out.println(time); //report sequential time
+           			verify = RunMetrics.start(RunMetrics.VERIFY);
+           			cd.checkOutput(wind); //check sequential output is correct
+           			verify.stop();
+           		}
+           		RunMetrics.Timer write = RunMetrics.start(RunMetrics.WRITE);
+           		cd.writeData(opts.output, wind); //write output data to a file
+           		write.stop();
+		}
+		if(cd.cache != null) {
+			System.out.println(cd.cache.stats());
+		}
+		if(cd.engine != null) {
+			cd.engine.close();
+		}
+		printMetrics(opts.metrics);
+	}
+
+
+	/**
+	* Prints the metrics collected during the run
+	*
+	*@param format Either json or prometheus, or null to print nothing
+	*/
+	static void printMetrics(String format) {
+		if("json".equals(format)) {
+			System.out.print(RunMetrics.toJson());
+		}
+		else if("prometheus".equals(format)) {
+			System.out.print(RunMetrics.toPrometheus());
 		}
 	}
 }
@@ -0,0 +1,130 @@
+
+/**
+ * Simulation grid holding the wind and uplift values of every gridpoint as flat primitive arrays
+ *
+ *<p>
+ *Values are stored structure-of-arrays style, one array per component, with the gridpoint (t, x, y) at linear position t*dimx*dimy + x*dimy + y. This is the same linear ordering used by the thread classes when dividing work.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class CloudGrid {
+
+	int dimt, dimx, dimy; // data dimensions
+	double[] windx; // x component of the in-plane wind vector
+	double[] windy; // y component of the in-plane wind vector
+	double[] convection; // vertical air movement strength
+
+	/**
+	*Creates a new empty grid with the specified dimensions
+	*
+	*@param t Number of timesteps
+	*@param x Number of gridpoints in the x direction
+	*@param y Number of gridpoints in the y direction
+	*/
+	public CloudGrid(int t, int x, int y) {
+		dimt = t; dimx = x; dimy = y;
+		int size = size();
+		windx = new double[size];
+		windy = new double[size];
+		convection = new double[size];
+	}
+
+	CloudGrid(int t, int x, int y, double[] wx, double[] wy, double[] conv) {
+		dimt = t; dimx = x; dimy = y;
+		windx = wx;
+		windy = wy;
+		convection = conv;
+	}
+
+	/**
+	* Creates a grid with different dimensions sharing the values of this grid, used to benchmark grids of other shapes
+	*
+	*@param t Number of timesteps
+	*@param x Number of gridpoints in the x direction
+	*@param y Number of gridpoints in the y direction
+	*@return CloudGrid viewing the same values in the given shape
+	*@throws IllegalArgumentException If the new shape holds more gridpoints than this grid
+	*/
+	public CloudGrid reshape(int t, int x, int y) {
+		if((long)t*x*y > size()) {
+			throw new IllegalArgumentException("Shape "+t+"x"+x+"x"+y+" is larger than the grid");
+		}
+		return new CloudGrid(t, x, y, windx, windy, convection);
+	}
+
+	/**
+	* Computes overall number of gridpoints held by the grid
+	*
+	*@return Integer value representing the total number of gridpoints
+	*/
+	public int size() {
+		return dimt*dimx*dimy;
+	}
+
+	/**
+	* Computes number of gridpoints in a single timestep
+	*
+	*@return Integer value representing the number of gridpoints per time slice
+	*/
+	public int sliceSize() {
+		return dimx*dimy;
+	}
+
+	/**
+	* Converts a 3D location in the simulation grid into a linear position
+	*
+	*@param t Integer value representing the time value of the gridpoint
+	*@param x Integer value representing the x position of the gridpoint
+	*@param y Integer value representing the y position of the gridpoint
+	*@return Integer value representing the linear position of the gridpoint
+	*/
+	public int index(int t, int x, int y) {
+		return (t*dimx + x)*dimy + y;
+	}
+
+	/**
+	* Returns the x component of the wind at the given linear position
+	*
+	*@param pos Linear position of the gridpoint
+	*@return Double value representing the x wind component
+	*/
+	public double windX(int pos) {
+		return windx[pos];
+	}
+
+	/**
+	* Returns the y component of the wind at the given linear position
+	*
+	*@param pos Linear position of the gridpoint
+	*@return Double value representing the y wind component
+	*/
+	public double windY(int pos) {
+		return windy[pos];
+	}
+
+	/**
+	* Returns the uplift value at the given linear position
+	*
+	*@param pos Linear position of the gridpoint
+	*@return Double value representing the vertical air movement strength
+	*/
+	public double uplift(int pos) {
+		return convection[pos];
+	}
+
+	/**
+	* Sets all values of the given gridpoint
+	*
+	*@param pos Linear position of the gridpoint
+	*@param wx x component of the wind
+	*@param wy y component of the wind
+	*@param conv Uplift value
+	*/
+	public void set(int pos, double wx, double wy, double conv) {
+		windx[pos] = wx;
+		windy[pos] = wy;
+		convection[pos] = conv;
+	}
+}
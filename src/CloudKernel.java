@@ -0,0 +1,404 @@
+
+import java.util.Arrays;
+
+/**
+ * Classifies cloud type for runs of gridpoints using separable neighbourhood sums
+ *
+ *<p>
+ *For each row of a time slice the wind values of the (up to) three neighbouring rows are first added into column sums, after which the neighbourhood sum of each gridpoint is the sum of three adjacent column sums. Neighbouring gridpoints share these sums, so each gridpoint costs a constant amount of work and no per-neighbour bounds checks are needed. Only gridpoints in the first and last column are handled separately.
+ *</p>
+ *<p>
+ *Wider neighbourhoods, of radius 2 or more, use running sums instead, so each gridpoint still costs a constant amount of work whatever the radius. The column sums of a row are found from those of the previous row by subtracting the row leaving the neighbourhood and adding the row entering it, and the neighbourhood sum of each gridpoint from that of the previous gridpoint by subtracting and adding one column sum. As at radius 1, only the neighbours within the grid are averaged.
+ *</p>
+ *<p>
+ *Adding the neighbours in a different order can change the last bits of the local average. Whenever the computed magnitude lies so close to one of the classification thresholds that such a difference could change the result, the gridpoint is classified again using findCloud, which adds the neighbours in the original order. Classifications therefore always match the per-gridpoint method exactly. The running sums round differently as they slide along, so their tolerance grows with the number of rows and columns slid.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class CloudKernel {
+
+	static final double TOLERANCE = 256*Math.ulp(1.0); // relative bound on rounding differences between summation orders
+
+	CloudGrid grid;
+	int dimx, dimy;
+	double[] colx; // column sums of x wind for the current row
+	double[] coly; // column sums of y wind for the current row
+	int[] types; // cloud types of the current row, before packing
+	int radius = 1; // neighbourhood radius, 1 for the 3x3 neighbourhood
+
+	// rows and columns summed into colx and coly for radius 2 or more, kept so the next row can slide them
+	int sumT = -1, sumRlo, sumRhi, sumClo, sumChi;
+	int slides; // rows added and subtracted since the column sums were last found from scratch
+	double maxSeen; // largest absolute wind value added since then
+
+	/**
+	*Creates a new kernel for the given grid
+	*
+	*<p>
+	*A kernel holds scratch arrays and must only be used by one thread at a time.
+	*</p>
+	*@param grid Grid holding the wind and uplift values
+	*/
+	public CloudKernel(CloudGrid grid) {
+		this.grid = grid;
+		dimx = grid.dimx;
+		dimy = grid.dimy;
+		colx = new double[dimy];
+		coly = new double[dimy];
+		types = new int[dimy];
+	}
+
+	/**
+	* Creates a kernel of the requested type for the given grid
+	*
+	*@param grid Grid holding the wind and uplift values
+	*@param simd Whether to create a SimdKernel rather than the scalar kernel
+	*@return CloudKernel of the requested type
+	*/
+	public static CloudKernel create(CloudGrid grid, boolean simd) {
+		if(simd) {
+			return new SimdKernel(grid);
+		}
+		return new CloudKernel(grid);
+	}
+
+	/**
+	* Creates a kernel of the requested type averaging over the given neighbourhood radius
+	*
+	*<p>
+	*SimdKernel only vectorises the 3x3 neighbourhood, and classifies wider neighbourhoods with the scalar running sums.
+	*</p>
+	*@param grid Grid holding the wind and uplift values
+	*@param simd Whether to create a SimdKernel rather than the scalar kernel
+	*@param radius Neighbourhood radius, 1 for the 3x3 neighbourhood
+	*@return CloudKernel of the requested type
+	*/
+	public static CloudKernel create(CloudGrid grid, boolean simd, int radius) {
+		CloudKernel kernel = create(grid, simd && radius == 1);
+		kernel.radius = radius;
+		return kernel;
+	}
+
+	/**
+	* Checks whether the SIMD kernel can be used, which needs the incubating vector module to be enabled
+	*
+	*@return Boolean value indicating whether SimdKernel instances can be created
+	*/
+	public static boolean simdAvailable() {
+		try {
+			new SimdKernel(new CloudGrid(1, 1, 1));
+			return true;
+		}
+		catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	* Finds cloud type for every gridpoint in a range of linear positions
+	*
+	*@param lo Linear position of the first gridpoint to classify
+	*@param hi Linear position after the last gridpoint to classify
+	*@param classification Packed classification that cloud types are written to
+	*/
+	public void classifyRange(int lo, int hi, PackedClassification classification) {
+		if(lo >= hi) {
+			return;
+		}
+		int t = lo / (dimx*dimy);
+		int x = (lo % (dimx*dimy)) / dimy;
+		int y = lo % dimy;
+		int pos = lo;
+		while(pos < hi) {
+			int end = Math.min(dimy, y + (hi-pos)); // stay within the current row
+			classifyRow(t, x, y, end, classification);
+			pos += end-y;
+			y = 0;
+			if(++x == dimx) {
+				x = 0;
+				t++;
+			}
+		}
+	}
+
+	/**
+	* Finds cloud type for a run of gridpoints within a single row and packs them into a classification
+	*
+	*@param t Integer value representing the time value of the row
+	*@param x Integer value representing the x position of the row
+	*@param y0 y position of the first gridpoint to classify
+	*@param y1 y position after the last gridpoint to classify
+	*@param classification Packed classification that cloud types are written to
+	*/
+	public void classifyRow(int t, int x, int y0, int y1, PackedClassification classification) {
+		classifyRow(t, x, y0, y1, types);
+		classification.setRow(t, x, y0, y1, types);
+	}
+
+	/**
+	* Finds cloud type for a run of gridpoints within a single row
+	*
+	*@param t Integer value representing the time value of the row
+	*@param x Integer value representing the x position of the row
+	*@param y0 y position of the first gridpoint to classify
+	*@param y1 y position after the last gridpoint to classify
+	*@param out Array that classification values for the row are written to
+	*/
+	public void classifyRow(int t, int x, int y0, int y1, int[] out) {
+		if(radius != 1) {
+			classifyRowWide(t, x, y0, y1, out);
+			return;
+		}
+		int rows = Math.min(x+1, dimx-1) - Math.max(x-1, 0) + 1;
+		double tol = TOLERANCE*columnSums(t, x, Math.max(y0-1, 0), Math.min(y1, dimy-1));
+		double[] convection = grid.convection;
+		int row = grid.index(t, x, 0);
+		int y = y0;
+		if(y == 0 && y < y1) { // first column
+			int hiCol = Math.min(1, dimy-1);
+			double sx = (hiCol == 0) ? colx[0] : colx[0]+colx[1];
+			double sy = (hiCol == 0) ? coly[0] : coly[0]+coly[1];
+			out[0] = classify(sx, sy, rows*(hiCol+1), convection[row], tol, t, x, 0);
+			y++;
+		}
+		int interiorEnd = Math.max(y, Math.min(y1, dimy-1));
+		classifyInterior(t, x, y, interiorEnd, rows, tol, out);
+		y = interiorEnd;
+		if(y < y1) { // last column
+			double sx = colx[y-1]+colx[y];
+			double sy = coly[y-1]+coly[y];
+			out[y] = classify(sx, sy, rows*2, convection[row+y], tol, t, x, y);
+		}
+	}
+
+	/**
+	* Finds cloud type for a run of gridpoints within a single row using running sums over a neighbourhood of radius 2 or more
+	*
+	*@param t Integer value representing the time value of the row
+	*@param x Integer value representing the x position of the row
+	*@param y0 y position of the first gridpoint to classify
+	*@param y1 y position after the last gridpoint to classify
+	*@param out Array that classification values for the row are written to
+	*/
+	void classifyRowWide(int t, int x, int y0, int y1, int[] out) {
+		int r = radius;
+		int rlo = Math.max(x-r, 0), rhi = Math.min(x+r, dimx-1);
+		int clo = Math.max(y0-r, 0), chi = Math.min(y1-1+r, dimy-1);
+		slideColumnSums(t, rlo, rhi, clo, chi);
+		int rows = rhi-rlo+1;
+		double tol = TOLERANCE/16*maxSeen*(slides + (chi-clo) + 3*r + 2);
+		double[] convection = grid.convection;
+		int row = grid.index(t, x, 0);
+		double sx = 0, sy = 0;
+		for(int c = clo; c <= Math.min(y0+r, dimy-1); c++) {
+			sx += colx[c];
+			sy += coly[c];
+		}
+		for(int y = y0; y < y1; y++) {
+			if(y > y0) { // slide the window one column along
+				if(y-r-1 >= 0) {
+					sx -= colx[y-r-1];
+					sy -= coly[y-r-1];
+				}
+				if(y+r < dimy) {
+					sx += colx[y+r];
+					sy += coly[y+r];
+				}
+			}
+			int cols = Math.min(y+r, dimy-1) - Math.max(y-r, 0) + 1;
+			out[y] = classify(sx, sy, rows*cols, convection[row+y], tol, t, x, y);
+		}
+	}
+
+	/**
+	* Makes the column sums hold the given rows, sliding those of the previous row when they cover the same columns
+	*
+	*@param t Integer value representing the time value of the rows
+	*@param rlo First row to sum
+	*@param rhi Last row to sum
+	*@param clo First column to sum
+	*@param chi Last column to sum
+	*/
+	void slideColumnSums(int t, int rlo, int rhi, int clo, int chi) {
+		int moved = (rlo-sumRlo) + (rhi-sumRhi);
+		if(t == sumT && clo == sumClo && chi == sumChi && rlo >= sumRlo && rhi >= sumRhi && rlo <= sumRhi+1 && moved <= rhi-rlo) {
+			for(int r = sumRlo; r < rlo; r++) {
+				addRow(t, r, clo, chi, -1);
+			}
+			for(int r = sumRhi+1; r <= rhi; r++) {
+				addRow(t, r, clo, chi, 1);
+			}
+			slides += moved;
+		}
+		else {
+			Arrays.fill(colx, clo, chi+1, 0);
+			Arrays.fill(coly, clo, chi+1, 0);
+			maxSeen = 0;
+			for(int r = rlo; r <= rhi; r++) {
+				addRow(t, r, clo, chi, 1);
+			}
+			slides = 0;
+		}
+		sumT = t; sumRlo = rlo; sumRhi = rhi; sumClo = clo; sumChi = chi;
+	}
+
+	/**
+	* Adds or subtracts the wind values of a row into the column sums
+	*/
+	void addRow(int t, int r, int clo, int chi, int sign) {
+		double[] windx = grid.windx;
+		double[] windy = grid.windy;
+		int base = grid.index(t, r, 0);
+		double max = maxSeen;
+		for(int c = clo; c <= chi; c++) {
+			double wx = windx[base+c];
+			double wy = windy[base+c];
+			max = Math.max(max, Math.max(Math.abs(wx), Math.abs(wy)));
+			if(sign > 0) {
+				colx[c] += wx;
+				coly[c] += wy;
+			}
+			else {
+				colx[c] -= wx;
+				coly[c] -= wy;
+			}
+		}
+		maxSeen = max;
+	}
+
+	/**
+	* Adds the wind values of the rows neighbouring a row into the column sums
+	*
+	*@param t Integer value representing the time value of the row
+	*@param x Integer value representing the x position of the row
+	*@param clo First column to sum
+	*@param chi Last column to sum
+	*@return Double value representing the largest absolute wind value added, used to bound rounding differences
+	*/
+	double columnSums(int t, int x, int clo, int chi) {
+		double[] windx = grid.windx;
+		double[] windy = grid.windy;
+		int rlo = Math.max(x-1, 0);
+		int rhi = Math.min(x+1, dimx-1);
+		double max = 0;
+		int base = grid.index(t, rlo, 0);
+		for(int c = clo; c <= chi; c++) {
+			double wx = windx[base+c];
+			double wy = windy[base+c];
+			max = Math.max(max, Math.max(Math.abs(wx), Math.abs(wy)));
+			colx[c] = wx;
+			coly[c] = wy;
+		}
+		for(int r = rlo+1; r <= rhi; r++) {
+			base += dimy;
+			for(int c = clo; c <= chi; c++) {
+				double wx = windx[base+c];
+				double wy = windy[base+c];
+				max = Math.max(max, Math.max(Math.abs(wx), Math.abs(wy)));
+				colx[c] += wx;
+				coly[c] += wy;
+			}
+		}
+		return max;
+	}
+
+	/**
+	* Finds cloud type for gridpoints of a row that have a neighbour on both sides, once the column sums are known
+	*
+	*@param t Integer value representing the time value of the row
+	*@param x Integer value representing the x position of the row
+	*@param from y position of the first gridpoint to classify, at least 1
+	*@param to y position after the last gridpoint to classify, at most dimy-1
+	*@param rows Number of neighbouring rows within the grid
+	*@param tol Tolerance below which a magnitude counts as close to a threshold
+	*@param out Array that classification values for the row are written to
+	*/
+	void classifyInterior(int t, int x, int from, int to, int rows, double tol, int[] out) {
+		double[] convection = grid.convection;
+		int row = grid.index(t, x, 0);
+		for(int y = from; y < to; y++) {
+			double sx = colx[y-1]+colx[y]+colx[y+1];
+			double sy = coly[y-1]+coly[y]+coly[y+1];
+			out[y] = classify(sx, sy, rows*3, convection[row+y], tol, t, x, y);
+		}
+	}
+
+	/**
+	* Classifies a gridpoint from its neighbourhood sums, falling back to findCloud near the thresholds
+	*
+	*@return Integer value representing the type of cloud likely to form. 0 = Cumulus, 1= Striated stratus 2 = Amorphous stratus.
+	*/
+	int classify(double sx, double sy, int numPoints, double uplift, double tol, int t, int x, int y) {
+		double xav = sx/numPoints;
+		double yav = sy/numPoints;
+		double magnitude = Math.sqrt((xav*xav)+(yav*yav));
+		double lift = Math.abs(uplift);
+		if((Math.abs(magnitude-lift) <= tol) || (Math.abs(magnitude-0.2) <= tol)) {
+			return findCloud(grid, t, x, y, radius);
+		}
+		return cloudType(magnitude, uplift);
+	}
+
+	/**
+	* Assigns cloud type from the local wind magnitude and uplift value
+	*
+	*@param magnitude Magnitude of the local average wind vector
+	*@param uplift Uplift value at the gridpoint
+	*@return Integer value representing the type of cloud likely to form. 0 = Cumulus, 1= Striated stratus 2 = Amorphous stratus.
+	*/
+	static int cloudType(double magnitude, double uplift) {
+		if (Math.abs(uplift) > magnitude) {
+			return 0;
+		}
+		else if ((magnitude > 0.2)&&(magnitude >= Math.abs(uplift))) {
+			return 1;
+		}
+		else {
+			return 2;
+		}
+	}
+
+	/**
+	* Finds the cloud classification for a single gridpoint, adding its neighbours one at a time
+	*
+	*@param grid Grid holding the wind and uplift values
+	*@param time Integer value representing the time value at which to find the cloud classification
+	*@param x Integer value representing the x position of the gridpoint
+	*@param y Integer value representing the y position of the gridpoint
+	*@return Integer value representing the type of cloud likely to form. 0 = Cumulus, 1= Striated stratus 2 = Amorphous stratus.
+	*/
+	public static int findCloud(CloudGrid grid, int time, int x, int y) {
+		return findCloud(grid, time, x, y, 1);
+	}
+
+	/**
+	* Finds the cloud classification for a single gridpoint, adding the neighbours within the given radius one at a time
+	*
+	*@param grid Grid holding the wind and uplift values
+	*@param time Integer value representing the time value at which to find the cloud classification
+	*@param x Integer value representing the x position of the gridpoint
+	*@param y Integer value representing the y position of the gridpoint
+	*@param radius Neighbourhood radius, 1 for the 3x3 neighbourhood
+	*@return Integer value representing the type of cloud likely to form. 0 = Cumulus, 1= Striated stratus 2 = Amorphous stratus.
+	*/
+	public static int findCloud(CloudGrid grid, int time, int x, int y, int radius) {
+		//find average of x and y components - but only for local elements
+		double xsum = 0;
+		double ysum = 0;
+		int numPoints = 0;
+		for(int i = Math.max(x-radius, 0); i <= Math.min(x+radius, grid.dimx-1); i++) {
+			for(int j = Math.max(y-radius, 0); j <= Math.min(y+radius, grid.dimy-1); j++) {
+				int pos = grid.index(time, i, j);
+				xsum += grid.windx[pos];
+				ysum += grid.windy[pos];
+				numPoints++;
+			}
+		}
+		double xav = xsum/numPoints;
+		double yav = ysum/numPoints;
+		double magnitude = Math.sqrt((xav*xav)+(yav*yav));
+		return cloudType(magnitude, grid.convection[grid.index(time, x, y)]);
+	}
+}
@@ -0,0 +1,159 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Writes cloud classifications to the text output format using parallelization
+ *
+ *<p>
+ *Classification digits are formatted straight into byte buffers, one buffer per time slice. A window of slices is formatted in parallel, after which the buffers are written to the file in order through a FileChannel. The output is byte-for-byte the same as printing each value with printf("%d ", ...).
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class CloudWriter {
+
+	static final int SLICES_PER_THREAD = 2; // slices formatted per worker thread before writing
+	static final byte[] DIGITS = digits(); // the 8 output bytes of every packed byte of four cloud types
+
+	static byte[] digits() {
+		byte[] table = new byte[256*8];
+		for(int b = 0; b < 256; b++) {
+			for(int i = 0; i < 4; i++) {
+				table[b*8 + 2*i] = (byte)('0' + ((b >> (2*i)) & 3));
+				table[b*8 + 2*i + 1] = ' ';
+			}
+		}
+		return table;
+	}
+
+	/**
+	* Writes the header, prevailing wind and classification of every time slice to a text file
+	*
+	*@param fileName Name of file to write data to
+	*@param classification Packed classification of cloud types to be written
+	*@param dimt Number of time slices to write
+	*@param wind Vector containing average wind values
+	*@param pool Pool used to format slices in parallel
+	*@throws IOException If the file cannot be written
+	*/
+	public static void write(String fileName, PackedClassification classification, int dimt, Vector<Double> wind, ForkJoinPool pool) throws IOException {
+		int dimx = classification.dimx;
+		int dimy = classification.dimy;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, ByteBuffer.wrap(header(dimt, dimx, dimy, wind)));
+			int window = Math.max(1, Math.min(dimt, pool.getParallelism()*SLICES_PER_THREAD));
+			byte[][] buffers = new byte[window][sliceBytes(dimx, dimy)];
+			for(int t = 0; t < dimt; t += window) {
+				int count = Math.min(window, dimt-t);
+				pool.invoke(new FormatSlices(classification, buffers, t, 0, count));
+				for(int i = 0; i < count; i++) {
+					writeFully(channel, ByteBuffer.wrap(buffers[i]));
+				}
+			}
+		}
+	}
+
+	/**
+	* Formats the first two lines of the output file
+	*
+	*@param dimt Number of time slices
+	*@param dimx Number of gridpoints in the x direction
+	*@param dimy Number of gridpoints in the y direction
+	*@param wind Vector containing average wind values
+	*@return Array of bytes holding the header lines
+	*/
+	public static byte[] header(int dimt, int dimx, int dimy, Vector<Double> wind) {
+		String header = String.format("%d %d %d\n", dimt, dimx, dimy) + String.format("%f %f\n", wind.get(0), wind.get(1));
+		return header.getBytes(); // default charset, as used by FileWriter
+	}
+
+	/**
+	* Computes the number of bytes in the output line of one time slice
+	*
+	*@param dimx Number of gridpoints in the x direction
+	*@param dimy Number of gridpoints in the y direction
+	*@return Integer value representing the length of a formatted slice
+	*/
+	public static int sliceBytes(int dimx, int dimy) {
+		return 2*dimx*dimy + 1;
+	}
+
+	/**
+	* Formats the cloud types of one time slice as a line of the output file
+	*
+	*<p>
+	*Each packed byte of four cloud types is looked up in a table holding its eight output bytes, so no digit is computed per gridpoint.
+	*</p>
+	*@param classification Packed classification holding the slice
+	*@param t Time value of the slice
+	*@param buf Array of at least sliceBytes bytes to write the line to
+	*/
+	public static void formatSlice(PackedClassification classification, int t, byte[] buf) {
+		byte[] data = classification.data;
+		int dimy = classification.dimy;
+		int full = dimy >> 2; // bytes holding four cloud types of the row
+		int pos = 0;
+		for(int x = 0; x < classification.dimx; x++) {
+			int off = classification.rowOffset(t, x);
+			for(int i = 0; i < full; i++) {
+				int k = (data[off+i] & 0xff) << 3;
+				buf[pos] = DIGITS[k]; buf[pos+1] = DIGITS[k+1]; buf[pos+2] = DIGITS[k+2]; buf[pos+3] = DIGITS[k+3];
+				buf[pos+4] = DIGITS[k+4]; buf[pos+5] = DIGITS[k+5]; buf[pos+6] = DIGITS[k+6]; buf[pos+7] = DIGITS[k+7];
+				pos += 8;
+			}
+			if((dimy & 3) != 0) { // last partly filled byte
+				int k = (data[off+full] & 0xff) << 3;
+				for(int i = 0; i < 2*(dimy & 3); i++) {
+					buf[pos++] = DIGITS[k+i];
+				}
+			}
+		}
+		buf[pos] = '\n';
+	}
+
+	/**
+	* Writes the whole buffer to the channel
+	*/
+	static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Threaded class to format a range of time slices into separate buffers using parallelization
+	 */
+	static class FormatSlices extends RecursiveAction {
+		PackedClassification classification;
+		byte[][] buffers;
+		int first; // time value of the slice written to buffers[0]
+		int lo;
+		int hi;
+
+		FormatSlices(PackedClassification classification, byte[][] buffers, int first, int lo, int hi) {
+			this.classification = classification; this.buffers = buffers; this.first = first; this.lo = lo; this.hi = hi;
+		}
+
+		protected void compute() {
+			if(hi-lo == 1) {
+				formatSlice(classification, first+lo, buffers[lo]);
+			}
+			else {
+				FormatSlices left = new FormatSlices(classification, buffers, first, lo, (hi+lo)/2);
+				FormatSlices right = new FormatSlices(classification, buffers, first, (hi+lo)/2, hi);
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.function.IntConsumer;
+
+/**
+ * Chooses the sequential cutoff of the thread classes by timing a short calibration pass
+ *
+ *<p>
+ *The best cutoff depends on the number of cores, the size of the data and the kernel and decomposition in use. A calibration pass times the workload with each candidate cutoff and keeps the fastest. The result is saved in a properties file in the user's home directory, keyed by machine, core count, kernel, decomposition and a power of two bucket of the data size, so later runs on the same machine with data of a similar size reuse it without calibrating again.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class CutoffTuner {
+
+	static final int[] CANDIDATES = {256, 1024, 4096, 16384, 65536, 262144};
+	static final int RUNS = 3; // runs per candidate, the fastest is kept
+	static final int SAMPLE_CELLS = 1 << 21; // gridpoints classified per calibration run
+	static final File STORE = new File(System.getProperty("user.home"), ".cloudclassification/cutoffs.properties");
+
+	/**
+	* Builds the key under which the cutoff for a run is stored
+	*
+	*@param cells Number of gridpoints the thread classes divide between them
+	*@param kernel Name of the kernel in use
+	*@param decomposition Name of the decomposition in use
+	*@return String key identifying the machine and the kind of run
+	*/
+	public static String key(long cells, String kernel, String decomposition) {
+		int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1, cells)); // floor of log2
+		return hostName()+"."+Runtime.getRuntime().availableProcessors()+"cpu."+kernel+"."+decomposition+".2^"+bucket;
+	}
+
+	/**
+	* Returns the stored cutoff for the given key, calibrating and storing one if there is none
+	*
+	*@param key Key built by the key method
+	*@param workload Runs the calibration workload once with the given cutoff
+	*@return Integer value representing the sequential cutoff to use
+	*/
+	public static synchronized int cutoffFor(String key, IntConsumer workload) {
+		Properties stored = load();
+		String value = stored.getProperty(key);
+		if(value != null) {
+			try {
+				return Integer.parseInt(value);
+			}
+			catch (NumberFormatException e) {
+				//recalibrate below
+			}
+		}
+		int cutoff = calibrate(workload);
+		System.out.println("Calibrated sequential cutoff = "+cutoff);
+		stored = load(); // another run may have stored other keys meanwhile
+		stored.setProperty(key, Integer.toString(cutoff));
+		save(stored);
+		return cutoff;
+	}
+
+	/**
+	* Times the workload with each candidate cutoff
+	*
+	*@param workload Runs the calibration workload once with the given cutoff
+	*@return Integer value representing the fastest cutoff
+	*/
+	public static int calibrate(IntConsumer workload) {
+		workload.accept(CANDIDATES[CANDIDATES.length/2]); // warm up the kernel before timing
+		int best = CANDIDATES[0];
+		long bestTime = Long.MAX_VALUE;
+		for(int c = 0; c < CANDIDATES.length; c++) {
+			for(int i = 0; i < RUNS; i++) {
+				long start = System.nanoTime();
+				workload.accept(CANDIDATES[c]);
+				long time = System.nanoTime() - start;
+				if(time < bestTime) {
+					bestTime = time;
+					best = CANDIDATES[c];
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	* Computes how many time slices to classify in a calibration run
+	*
+	*@param sliceSize Number of gridpoints in one time slice
+	*@param slices Number of time slices available
+	*@return Integer value representing the number of slices to use
+	*/
+	public static int sampleSlices(int sliceSize, int slices) {
+		return Math.max(1, Math.min(slices, SAMPLE_CELLS/Math.max(1, sliceSize)));
+	}
+
+	static Properties load() {
+		Properties stored = new Properties();
+		if(STORE.exists()) {
+			try (InputStream in = new FileInputStream(STORE)) {
+				stored.load(in);
+			}
+			catch (IOException e) {
+				System.out.println("Unable to read cutoff file "+STORE);
+			}
+		}
+		return stored;
+	}
+
+	/**
+	* Writes the cutoffs to a temporary file and moves it over the store, so that runs loading the store at the same time never see a partly written file
+	*/
+	static void save(Properties stored) {
+		File temp = null;
+		try {
+			STORE.getParentFile().mkdirs();
+			temp = File.createTempFile(STORE.getName(), ".tmp", STORE.getParentFile());
+			try (OutputStream out = new FileOutputStream(temp)) {
+				stored.store(out, "Calibrated sequential cutoffs");
+			}
+			Files.move(temp.toPath(), STORE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			System.out.println("Unable to write cutoff file "+STORE);
+		}
+		finally {
+			if(temp != null) {
+				temp.delete(); // only left behind if the move failed
+			}
+		}
+	}
+
+	static String hostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		}
+		catch (IOException e) {
+			return "localhost";
+		}
+	}
+}
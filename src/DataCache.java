@@ -0,0 +1,229 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Content-addressed cache on disk of parsed input files and classification results, so repeated runs on the same data skip parsing or classifying
+ *
+ *<p>
+ *Entries are named by a key built from a CRC32C checksum of the file content, its size and its modification time, so an entry is only used while the file is unchanged, whatever its name. Parsed input files are stored in the binary format of GridFile and parsed correct output files in the binary format of ResultFile, both loaded without parsing. Results of a run are stored in the binary format of ResultFile under the input key and the options that change the result. Entries are written to a temporary file and renamed into place, so a run never sees a partly written entry.
+ *</p>
+ *<p>
+ *The cache is kept below a size cap by evicting the least recently used entries. The modification time of an entry records its last use, being updated whenever it is read. Hits, misses and evictions are counted in RunMetrics.
+ *</p>
+ *<p>
+ *Can be run from the command line to inspect or empty the cache: java DataCache [list|clear]
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class DataCache {
+
+	static final File DEFAULT_DIR = new File(System.getProperty("user.home"), ".cloudclassification/cache");
+	static final long DEFAULT_CAPACITY = 2L << 30; // bytes
+	static final long MAX_MAP = 1L << 30; // largest region hashed through a single mapping
+
+	File dir; // directory holding the entries
+	long capacity; // largest total size of the entries, in bytes
+	Map<String, String> keys = new HashMap<String, String>(); // keys already computed in this run, by path, size and modification time
+
+	/**
+	 * Writes an entry to the given file
+	 */
+	public interface EntryWriter {
+		void write(String fileName) throws IOException;
+	}
+
+	/**
+	*Creates a cache keeping its entries in the given directory
+	*
+	*@param dir Directory holding the entries, created if needed
+	*@param capacity Largest total size of the entries in bytes
+	*/
+	public DataCache(File dir, long capacity) {
+		this.dir = dir;
+		this.capacity = capacity;
+	}
+
+	/**
+	* Opens the cache in the default directory in the user's home directory
+	*
+	*@return DataCache with the default size cap
+	*/
+	public static DataCache open() {
+		return new DataCache(DEFAULT_DIR, DEFAULT_CAPACITY);
+	}
+
+	/**
+	* Builds the key of a file from its content, size and modification time
+	*
+	*@param fileName Name of the file
+	*@return String key naming the entries of the file
+	*@throws IOException If the file cannot be read
+	*/
+	public synchronized String key(String fileName) throws IOException {
+		File file = new File(fileName);
+		String id = file.getCanonicalPath()+"|"+file.length()+"|"+file.lastModified();
+		String key = keys.get(id);
+		if(key == null) {
+			key = String.format("%08x-%d-%d", checksum(file), file.length(), file.lastModified());
+			keys.put(id, key);
+		}
+		return key;
+	}
+
+	/**
+	* Computes the CRC32C checksum of the content of a file, mapping at most MAX_MAP bytes at a time
+	*/
+	static long checksum(File file) throws IOException {
+		CRC32C crc = new CRC32C();
+		try (RandomAccessFile in = new RandomAccessFile(file, "r");
+			FileChannel channel = in.getChannel()) {
+			long size = channel.size();
+			for(long pos = 0; pos < size; pos += MAX_MAP) {
+				crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAX_MAP, size-pos)));
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	* Returns the file of an entry
+	*
+	*@param key Key of the file the entry was made from
+	*@param kind Kind of entry, the name suffix telling entries of the same file apart
+	*@return File the entry is stored in
+	*/
+	public File entry(String key, String kind) {
+		return new File(dir, key+"."+kind);
+	}
+
+	/**
+	* Checks whether an entry is stored, marking it as the most recently used if it is
+	*
+	*@param entry File of the entry
+	*@return Boolean value indicating whether the entry can be read
+	*/
+	public boolean lookup(File entry) {
+		if(entry.isFile()) {
+			entry.setLastModified(System.currentTimeMillis());
+			RunMetrics.cacheHits.increment();
+			return true;
+		}
+		RunMetrics.cacheMisses.increment();
+		return false;
+	}
+
+	/**
+	* Stores an entry, then evicts the least recently used entries until the cache fits its size cap
+	*
+	*<p>
+	*The cache only saves work, so an entry that cannot be written is skipped with a message and the run goes on.
+	*</p>
+	*@param entry File of the entry
+	*@param writer Writes the entry to the file name it is given
+	*/
+	public void store(File entry, EntryWriter writer) {
+		File temp = null;
+		try {
+			dir.mkdirs();
+			temp = File.createTempFile(entry.getName(), ".tmp", dir);
+			writer.write(temp.getPath());
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			evict();
+		}
+		catch (IOException e) {
+			System.out.println("Unable to cache "+entry.getName());
+			if(temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	* Lists the entries, least recently used first
+	*
+	*@return Array of the entry files
+	*/
+	public File[] entries() {
+		File[] files = dir.listFiles(f -> f.isFile() && !f.getName().endsWith(".tmp"));
+		if(files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		return files;
+	}
+
+	/**
+	* Computes the total size of the entries
+	*
+	*@return Long value representing the size in bytes
+	*/
+	public long size() {
+		long size = 0;
+		for(File f : entries()) {
+			size += f.length();
+		}
+		return size;
+	}
+
+	/**
+	* Deletes the least recently used entries until the total size is within the size cap
+	*/
+	synchronized void evict() {
+		File[] files = entries();
+		long size = 0;
+		for(File f : files) {
+			size += f.length();
+		}
+		for(int i = 0; i < files.length && size > capacity; i++) {
+			long length = files[i].length();
+			if(files[i].delete()) {
+				size -= length;
+				RunMetrics.cacheEvictions.increment();
+			}
+		}
+	}
+
+	/**
+	* Describes the cache use of this run and the current contents of the cache
+	*
+	*@return String holding the hits, misses and evictions, and the number and size of the entries
+	*/
+	public String stats() {
+		return String.format("Cache: %d hits, %d misses, %d evictions, %d entries, %d of %d bytes", RunMetrics.cacheHits.sum(), RunMetrics.cacheMisses.sum(),
+			RunMetrics.cacheEvictions.sum(), entries().length, size(), capacity);
+	}
+
+	/**
+	* Lists or deletes the entries of the default cache
+	*
+	*@param args The argument args[0] is either list or clear
+	*/
+	public static void main(String[] args) {
+		if(args.length != 1 || !(args[0].equals("list") || args[0].equals("clear"))) {
+			System.out.println("Usage: java DataCache [list|clear]");
+			return;
+		}
+		DataCache cache = open();
+		for(File f : cache.entries()) {
+			if(args[0].equals("clear")) {
+				f.delete();
+			}
+			else {
+				System.out.println(String.format("%tF %<tT %12d %s", f.lastModified(), f.length(), f.getName()));
+			}
+		}
+		System.out.println(cache.stats());
+	}
+}
@@ -0,0 +1,113 @@
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.InputMismatchException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Simulation grid holding the wind and uplift values of every gridpoint as 32-bit floats
+ *
+ *<p>
+ *Laid out as CloudGrid, with one flat array per component in linear grid order, but each value takes 4 bytes instead of 8. The input files hold values to six decimal places, well within the 24-bit mantissa of a float for the magnitudes found in the data, so the grid takes half the memory and the classification reads half the bytes. Values are narrowed once as they are loaded, and FloatKernel classifies them in float arithmetic. PrecisionReport measures how far the results move from those of the double precision path.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class FloatGrid {
+
+	int dimt, dimx, dimy; // data dimensions
+	float[] windx; // x component of the in-plane wind vector
+	float[] windy; // y component of the in-plane wind vector
+	float[] convection; // vertical air movement strength
+
+	/**
+	*Creates a new empty grid with the specified dimensions
+	*
+	*@param t Number of timesteps
+	*@param x Number of gridpoints in the x direction
+	*@param y Number of gridpoints in the y direction
+	*/
+	public FloatGrid(int t, int x, int y) {
+		dimt = t; dimx = x; dimy = y;
+		int size = size();
+		windx = new float[size];
+		windy = new float[size];
+		convection = new float[size];
+	}
+
+	/**
+	* Creates a float grid holding the values of a double precision grid, each rounded to the nearest float
+	*
+	*@param grid Grid to narrow
+	*@return FloatGrid of the same dimensions
+	*/
+	public static FloatGrid of(CloudGrid grid) {
+		FloatGrid narrow = new FloatGrid(grid.dimt, grid.dimx, grid.dimy);
+		for(int pos = 0; pos < grid.size(); pos++) {
+			narrow.windx[pos] = (float)grid.windx[pos];
+			narrow.windy[pos] = (float)grid.windy[pos];
+			narrow.convection[pos] = (float)grid.convection[pos];
+		}
+		return narrow;
+	}
+
+	/**
+	* Loads a text input data file or a binary grid file straight into a float grid, so no double precision copy is held
+	*
+	*@param fileName Name of file to read data from
+	*@param pool Pool used to parse text files in parallel chunks
+	*@return FloatGrid holding the values of the file
+	*@throws IOException If the file cannot be read or is not a valid grid file
+	*@throws InputMismatchException If a text file does not hold the number of values given in its header
+	*/
+	public static FloatGrid load(String fileName, ForkJoinPool pool) throws IOException {
+		if(GridFile.isGridFile(fileName)) {
+			try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+				int[] dims = GridFile.readHeader(channel, fileName, Integer.MAX_VALUE);
+				FloatGrid grid = new FloatGrid(dims[0], dims[1], dims[2]);
+				long arrayBytes = 8L*grid.size();
+				GridFile.readArray(channel, GridFile.HEADER_SIZE, grid.windx);
+				GridFile.readArray(channel, GridFile.HEADER_SIZE + arrayBytes, grid.windy);
+				GridFile.readArray(channel, GridFile.HEADER_SIZE + 2*arrayBytes, grid.convection);
+				return grid;
+			}
+		}
+		TextParser parser = new TextParser(fileName, pool);
+		try {
+			int[] dims = TextParser.dimensions(parser.header(3));
+			FloatGrid grid = new FloatGrid(dims[0], dims[1], dims[2]);
+			long tokens = parser.parse(new TextParser.FloatGridSink(grid, 3));
+			if(tokens != 3 + 3L*grid.size()) {
+				throw new InputMismatchException("Expected "+(3L*grid.size())+" values but found "+(tokens-3));
+			}
+			return grid;
+		}
+		finally {
+			parser.close();
+		}
+	}
+
+	/**
+	* Computes overall number of gridpoints held by the grid
+	*
+	*@return Integer value representing the total number of gridpoints
+	*/
+	public int size() {
+		return dimt*dimx*dimy;
+	}
+
+	/**
+	* Converts a 3D location in the simulation grid into a linear position
+	*
+	*@param t Integer value representing the time value of the gridpoint
+	*@param x Integer value representing the x position of the gridpoint
+	*@param y Integer value representing the y position of the gridpoint
+	*@return Integer value representing the linear position of the gridpoint
+	*/
+	public int index(int t, int x, int y) {
+		return (t*dimx + x)*dimy + y;
+	}
+}
@@ -0,0 +1,202 @@
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classifies cloud type for rows of a FloatGrid in 32-bit float arithmetic
+ *
+ *<p>
+ *Works as the scalar CloudKernel does: the wind values of the neighbouring rows are added into column sums, and the neighbourhood sum of each gridpoint is the sum of the adjacent column sums, found directly for the 3x3 neighbourhood and by sliding a running sum along the row for wider ones. Sums, averages and the magnitude are all computed in float. Unlike CloudKernel, gridpoints close to a threshold are not classified again in double precision, as the grid no longer holds the double values, so the results can differ from the double precision path. PrecisionReport counts these differences.
+ *</p>
+ *<p>
+ *The wind is summed in double precision, row by row, so the prevailing wind only differs from the double precision path by the rounding of the inputs to float.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class FloatKernel {
+
+	static final float THRESHOLD = 0.2f; // magnitude above which stratus is striated
+
+	FloatGrid grid;
+	int dimx, dimy;
+	int radius; // neighbourhood radius, 1 for the 3x3 neighbourhood
+	float[] colx; // column sums of x wind for the current row
+	float[] coly; // column sums of y wind for the current row
+	int[] types; // cloud types of the current row, before packing
+
+	/**
+	*Creates a new kernel for the given grid
+	*
+	*<p>
+	*A kernel holds scratch arrays and must only be used by one thread at a time.
+	*</p>
+	*@param grid Grid holding the wind and uplift values
+	*@param radius Neighbourhood radius, 1 for the 3x3 neighbourhood
+	*/
+	public FloatKernel(FloatGrid grid, int radius) {
+		this.grid = grid;
+		this.radius = radius;
+		dimx = grid.dimx;
+		dimy = grid.dimy;
+		colx = new float[dimy];
+		coly = new float[dimy];
+		types = new int[dimy];
+	}
+
+	/**
+	* Classifies the first time slices of a grid and sums their wind values using parallelization
+	*
+	*@param grid Grid holding the wind and uplift values
+	*@param classification Packed classification that cloud types are written to
+	*@param slices Number of time slices to classify
+	*@param cutoff Number of gridpoints below which rows are classified sequentially
+	*@param radius Neighbourhood radius, 1 for the 3x3 neighbourhood
+	*@param pool Pool used to run the row tasks
+	*@return Array holding the sum of the x values and the sum of the y values, the same at any cutoff
+	*/
+	public static double[] classify(FloatGrid grid, PackedClassification classification, int slices, int cutoff, int radius, ForkJoinPool pool) {
+		int rows = slices*grid.dimx;
+		double[] rowx = new double[rows];
+		double[] rowy = new double[rows];
+		pool.invoke(new FloatClouds(grid, classification, 0, rows, Math.max(1, cutoff/grid.dimy), radius, rowx, rowy));
+		double[] slicex = new double[slices];
+		double[] slicey = new double[slices];
+		for(int t = 0; t < slices; t++) {
+			slicex[t] = WindSums.pairwise(rowx, t*grid.dimx, (t+1)*grid.dimx);
+			slicey[t] = WindSums.pairwise(rowy, t*grid.dimx, (t+1)*grid.dimx);
+		}
+		return new double[] {WindSums.pairwise(slicex, 0, slices), WindSums.pairwise(slicey, 0, slices)};
+	}
+
+	/**
+	 * Threaded class to classify a range of rows and sum their wind values using parallelization
+	 *
+	 *<p>
+	 *Rows are numbered t*dimx + x. Each row is packed into whole bytes of the classification, so tasks never share a byte.
+	 *</p>
+	 */
+	static class FloatClouds extends RecursiveAction {
+		FloatGrid grid;
+		PackedClassification classification;
+		int lo, hi; // rows to classify
+		int cutoff; // number of rows below which work is done sequentially
+		int radius;
+		double[] rowx, rowy; // wind sum of each row
+
+		FloatClouds(FloatGrid grid, PackedClassification classification, int lo, int hi, int cutoff, int radius, double[] rowx, double[] rowy) {
+			this.grid = grid; this.classification = classification; this.lo = lo; this.hi = hi;
+			this.cutoff = cutoff; this.radius = radius; this.rowx = rowx; this.rowy = rowy;
+		}
+
+		protected void compute() {
+			if(hi-lo <= cutoff) {
+				FloatKernel kernel = new FloatKernel(grid, radius);
+				for(int row = lo; row < hi; row++) {
+					int t = row/grid.dimx, x = row%grid.dimx;
+					kernel.classifyRow(t, x, classification);
+					double sx = 0, sy = 0;
+					for(int pos = row*grid.dimy, end = pos+grid.dimy; pos < end; pos++) {
+						sx += grid.windx[pos];
+						sy += grid.windy[pos];
+					}
+					rowx[row] = sx;
+					rowy[row] = sy;
+				}
+				RunMetrics.leaf((long)(hi-lo)*grid.dimy);
+			}
+			else {
+				FloatClouds left = new FloatClouds(grid, classification, lo, (hi+lo)/2, cutoff, radius, rowx, rowy);
+				FloatClouds right = new FloatClouds(grid, classification, (hi+lo)/2, hi, cutoff, radius, rowx, rowy);
+				left.fork();
+				RunMetrics.forked();
+				right.compute();
+				left.join();
+			}
+		}
+	}
+
+	/**
+	* Finds cloud type for every gridpoint of a row and packs them into a classification
+	*
+	*@param t Integer value representing the time value of the row
+	*@param x Integer value representing the x position of the row
+	*@param classification Packed classification that cloud types are written to
+	*/
+	public void classifyRow(int t, int x, PackedClassification classification) {
+		int rlo = Math.max(x-radius, 0), rhi = Math.min(x+radius, dimx-1);
+		int base = grid.index(t, rlo, 0);
+		for(int c = 0; c < dimy; c++) {
+			colx[c] = grid.windx[base+c];
+			coly[c] = grid.windy[base+c];
+		}
+		for(int r = rlo+1; r <= rhi; r++) {
+			base += dimy;
+			for(int c = 0; c < dimy; c++) {
+				colx[c] += grid.windx[base+c];
+				coly[c] += grid.windy[base+c];
+			}
+		}
+		int rows = rhi-rlo+1;
+		int row = grid.index(t, x, 0);
+		if(radius == 1) {
+			for(int y = 0; y < dimy; y++) {
+				float sx = colx[y], sy = coly[y];
+				if(y > 0) {
+					sx += colx[y-1];
+					sy += coly[y-1];
+				}
+				if(y < dimy-1) {
+					sx += colx[y+1];
+					sy += coly[y+1];
+				}
+				int cols = Math.min(y+1, dimy-1) - Math.max(y-1, 0) + 1;
+				types[y] = classify(sx, sy, rows*cols, grid.convection[row+y]);
+			}
+		}
+		else {
+			float sx = 0, sy = 0;
+			for(int c = 0; c <= Math.min(radius, dimy-1); c++) {
+				sx += colx[c];
+				sy += coly[c];
+			}
+			for(int y = 0; y < dimy; y++) {
+				if(y > 0) { // slide the window one column along
+					if(y-radius-1 >= 0) {
+						sx -= colx[y-radius-1];
+						sy -= coly[y-radius-1];
+					}
+					if(y+radius < dimy) {
+						sx += colx[y+radius];
+						sy += coly[y+radius];
+					}
+				}
+				int cols = Math.min(y+radius, dimy-1) - Math.max(y-radius, 0) + 1;
+				types[y] = classify(sx, sy, rows*cols, grid.convection[row+y]);
+			}
+		}
+		classification.setRow(t, x, 0, dimy, types);
+	}
+
+	/**
+	* Classifies a gridpoint from its neighbourhood sums in float arithmetic
+	*
+	*@return Integer value representing the type of cloud likely to form. 0 = Cumulus, 1= Striated stratus 2 = Amorphous stratus.
+	*/
+	static int classify(float sx, float sy, int numPoints, float uplift) {
+		float xav = sx/numPoints;
+		float yav = sy/numPoints;
+		float magnitude = (float)Math.sqrt((xav*xav)+(yav*yav));
+		float lift = Math.abs(uplift);
+		if (lift > magnitude) {
+			return 0;
+		}
+		else if (magnitude > THRESHOLD) {
+			return 1;
+		}
+		else {
+			return 2;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Engine running the recursive WriteClouds or TiledClouds thread classes on a ForkJoinPool of its own
+ *
+ *<p>
+ *This is the divide and conquer strategy used by CloudData on its shared pool, with the parallelism set by the engine rather than by the number of processors.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class ForkJoinEngine implements ClassificationEngine {
+
+	ForkJoinPool pool;
+	boolean tiled; // divide work using TiledClouds rather than WriteClouds
+
+	/**
+	*Creates an engine with a pool of the given parallelism
+	*
+	*@param parallelism Number of worker threads
+	*@param tiled Whether to divide work using TiledClouds rather than WriteClouds
+	*/
+	public ForkJoinEngine(int parallelism, boolean tiled) {
+		pool = new ForkJoinPool(parallelism);
+		this.tiled = tiled;
+	}
+
+	public double[] classify(CloudGrid grid, PackedClassification classification, int slices, int cutoff, boolean simd, int radius, WindSums sums) {
+		if(tiled) {
+			pool.invoke(new TiledClouds(classification, grid, 0, slices, cutoff, simd, sums, radius));
+		}
+		else {
+			pool.invoke(new WriteClouds(classification, grid, 0, slices*grid.dimx*grid.dimy, cutoff, simd, sums, radius));
+		}
+		return sums.total(slices);
+	}
+
+	public String name() {
+		return "forkjoin";
+	}
+
+	public int parallelism() {
+		return pool.getParallelism();
+	}
+
+	public void close() {
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,197 @@
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes simulation grids in a compact binary columnar format
+ *
+ *<p>
+ *The file starts with a fixed size little-endian header holding a magic number, the format version and the grid dimensions dimt, dimx and dimy. It is followed by three contiguous little-endian arrays of doubles holding the x wind, y wind and convection values in linear grid order. Files are loaded by memory-mapping them, so no parsing step is needed.
+ *</p>
+ *<p>
+ *Can be run from the command line to convert a text input file into the binary format: java GridFile [input text file] [output grid file]
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class GridFile {
+
+	static final int MAGIC = 0x47444c43; // "CLDG" when read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32; // keeps the arrays 8-byte aligned
+	static final long MAX_MAP = 1L << 30; // largest region mapped at once
+
+	/**
+	* Checks whether the given file starts with the binary grid header
+	*
+	*@param fileName Name of the file to check
+	*@return Boolean value indicating whether the file is in the binary grid format
+	*/
+	public static boolean isGridFile(String fileName) {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			if(file.length() < HEADER_SIZE) {
+				return false;
+			}
+			return Integer.reverseBytes(file.readInt()) == MAGIC;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	* Memory-maps a binary grid file and loads its values into a new grid
+	*
+	*@param fileName Name of the file to load
+	*@return CloudGrid holding the values stored in the file
+	*@throws IOException If the file cannot be read or is not a valid grid file
+	*/
+	public static CloudGrid load(String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			FileChannel channel = file.getChannel()) {
+			int[] dims = readHeader(channel, fileName, Integer.MAX_VALUE);
+			CloudGrid grid = new CloudGrid(dims[0], dims[1], dims[2]);
+			long arrayBytes = 8L*grid.size();
+			readArray(channel, HEADER_SIZE, grid.windx);
+			readArray(channel, HEADER_SIZE + arrayBytes, grid.windy);
+			readArray(channel, HEADER_SIZE + 2*arrayBytes, grid.convection);
+			return grid;
+		}
+	}
+
+	/**
+	* Reads the header of a binary grid file, checking its dimensions and that the file holds all the values it describes
+	*
+	*@param channel Channel of the file to read from
+	*@param fileName Name of the file, used in error messages
+	*@param maxCells Largest number of gridpoints the caller can hold, Integer.MAX_VALUE to load the whole grid
+	*@return Integer array holding the dimensions dimt, dimx and dimy
+	*@throws IOException If the file cannot be read, is not a valid grid file or holds more gridpoints than maxCells
+	*/
+	static int[] readHeader(FileChannel channel, String fileName, long maxCells) throws IOException {
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		if(header.getInt(0) != MAGIC) {
+			throw new IOException("Not a grid file: "+fileName);
+		}
+		if(header.getInt(4) != VERSION) {
+			throw new IOException("Unsupported grid file version "+header.getInt(4));
+		}
+		int[] dims = {header.getInt(8), header.getInt(12), header.getInt(16)};
+		if(dims[0] < 1 || dims[1] < 1 || dims[2] < 1) {
+			throw new IOException("Invalid dimensions "+dims[0]+" "+dims[1]+" "+dims[2]+" in grid file: "+fileName);
+		}
+		long cells = (long)dims[0]*dims[1]*dims[2];
+		if((long)dims[1]*dims[2] > Integer.MAX_VALUE || cells > maxCells) {
+			throw new IOException("Grid of "+cells+" gridpoints is too large to load: "+fileName);
+		}
+		if(channel.size() < HEADER_SIZE + 3*8L*dims[0]*dims[1]*dims[2]) {
+			throw new IOException("Truncated grid file: "+fileName);
+		}
+		return dims;
+	}
+
+	/**
+	* Writes a grid to a file in the binary grid format
+	*
+	*@param grid Grid to be written
+	*@param fileName Name of the file to write to
+	*@throws IOException If the file cannot be written
+	*/
+	public static void write(CloudGrid grid, String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+			FileChannel channel = file.getChannel()) {
+			long arrayBytes = 8L*grid.size();
+			file.setLength(HEADER_SIZE + 3*arrayBytes);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(grid.dimt).putInt(grid.dimx).putInt(grid.dimy);
+			header.clear();
+			channel.write(header, 0);
+			writeArray(channel, HEADER_SIZE, grid.windx);
+			writeArray(channel, HEADER_SIZE + arrayBytes, grid.windy);
+			writeArray(channel, HEADER_SIZE + 2*arrayBytes, grid.convection);
+		}
+	}
+
+	/**
+	* Copies an array of doubles out of the file, mapping at most MAX_MAP bytes at a time
+	*
+	*@param channel Channel of the file to read from
+	*@param offset Byte offset of the first value
+	*@param values Array to fill
+	*@throws IOException If the region cannot be mapped
+	*/
+	static void readArray(FileChannel channel, long offset, double[] values) throws IOException {
+		int step = (int)(MAX_MAP/8);
+		for(int i = 0; i < values.length; i += step) {
+			int len = Math.min(step, values.length-i);
+			DoubleBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset + 8L*i, 8L*len).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			buffer.get(values, i, len);
+		}
+	}
+
+	/**
+	* Copies an array of doubles out of the file, narrowing each value to a float, mapping at most MAX_MAP bytes at a time
+	*
+	*@param channel Channel of the file to read from
+	*@param offset Byte offset of the first value
+	*@param values Array to fill
+	*@throws IOException If the region cannot be mapped
+	*/
+	static void readArray(FileChannel channel, long offset, float[] values) throws IOException {
+		int step = (int)(MAX_MAP/8);
+		for(int i = 0; i < values.length; i += step) {
+			int len = Math.min(step, values.length-i);
+			DoubleBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset + 8L*i, 8L*len).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			for(int j = 0; j < len; j++) {
+				values[i+j] = (float)buffer.get(j);
+			}
+		}
+	}
+
+	/**
+	* Copies an array of doubles into the file, mapping at most MAX_MAP bytes at a time
+	*
+	*@param channel Channel of the file to write to
+	*@param offset Byte offset of the first value
+	*@param values Array to be written
+	*@throws IOException If the region cannot be mapped
+	*/
+	static void writeArray(FileChannel channel, long offset, double[] values) throws IOException {
+		int step = (int)(MAX_MAP/8);
+		for(int i = 0; i < values.length; i += step) {
+			int len = Math.min(step, values.length-i);
+			DoubleBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset + 8L*i, 8L*len).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			buffer.put(values, i, len);
+		}
+	}
+
+	/**
+	* Converts a text input file into the binary grid format
+	*
+	*@param args The first argument args[0] is the name of the text file to read from. The second argument args[1] is the name of the grid file to write to.
+	*/
+	public static void main(String[] args) {
+		if(args.length != 2) {
+			System.out.println("Usage: java GridFile [input text file] [output grid file]");
+			return;
+		}
+		CloudData cd = new CloudData();
+		cd.readData(args[0]);
+		if(cd.grid == null) {
+			return;
+		}
+		try {
+			write(cd.grid, args[1]);
+			System.out.println("Wrote "+cd.grid.size()+" gridpoints to "+args[1]);
+		}
+		catch (IOException e) {
+			System.out.println("Unable to write grid file "+args[1]);
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates synthetic input grids of any size from a seed, in memory or written to a file
+ *
+ *<p>
+ *Each time slice is filled from its own random generator, seeded from the grid seed and the time value, so the values depend only on the seed and the dimensions and not on the number of threads. The wind is a large scale flow that drifts over time plus local noise, and the convection is noise, giving a mix of all three cloud types. Values are rounded to six decimal places, the precision of the text input format, so a grid written as text and read back holds exactly the values generated.
+ *</p>
+ *<p>
+ *Can be run from the command line to write a grid: java GridGenerator [dimt] [dimx] [dimy] [seed] [output file] [text|binary]. Text files are in the input data format, binary files in the format of GridFile.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class GridGenerator {
+
+	static final double FLOW = 0.35; // amplitude of the large scale wind
+	static final double NOISE = 0.25; // amplitude of the local wind noise
+	static final double LIFT = 0.45; // amplitude of the convection
+
+	/**
+	* Generates a grid of the given dimensions
+	*
+	*@param dimt Number of timesteps
+	*@param dimx Number of gridpoints in the x direction
+	*@param dimy Number of gridpoints in the y direction
+	*@param seed Seed the values are generated from
+	*@param pool Pool used to fill time slices in parallel
+	*@return CloudGrid holding the generated values
+	*/
+	public static CloudGrid generate(int dimt, int dimx, int dimy, long seed, ForkJoinPool pool) {
+		CloudGrid grid = new CloudGrid(dimt, dimx, dimy);
+		pool.invoke(new FillSlices(grid, seed, 0, dimt));
+		return grid;
+	}
+
+	/**
+	 * Threaded class to fill a range of time slices using parallelization
+	 */
+	static class FillSlices extends RecursiveAction {
+		CloudGrid grid;
+		long seed;
+		int lo, hi;
+
+		FillSlices(CloudGrid grid, long seed, int lo, int hi) {
+			this.grid = grid; this.seed = seed; this.lo = lo; this.hi = hi;
+		}
+
+		protected void compute() {
+			if(hi-lo == 1) {
+				fillSlice(grid, seed, lo);
+			}
+			else if(hi > lo) {
+				FillSlices left = new FillSlices(grid, seed, lo, (hi+lo)/2);
+				FillSlices right = new FillSlices(grid, seed, (hi+lo)/2, hi);
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+	}
+
+	/**
+	* Fills one time slice from its own generator
+	*/
+	static void fillSlice(CloudGrid grid, long seed, int t) {
+		SplittableRandom random = new SplittableRandom(seed*0x9E3779B97F4A7C15L + t);
+		double phase = 0.05*t;
+		int pos = grid.index(t, 0, 0);
+		for(int x = 0; x < grid.dimx; x++) {
+			double fx = Math.sin(2*Math.PI*((double)x/grid.dimx + phase));
+			for(int y = 0; y < grid.dimy; y++, pos++) {
+				double fy = Math.cos(2*Math.PI*((double)y/grid.dimy - phase));
+				grid.windx[pos] = round(FLOW*fx + NOISE*(2*random.nextDouble() - 1));
+				grid.windy[pos] = round(FLOW*fy + NOISE*(2*random.nextDouble() - 1));
+				grid.convection[pos] = round(LIFT*(2*random.nextDouble() - 1));
+			}
+		}
+	}
+
+	/**
+	* Rounds a value to six decimal places, the value a text file holding it would be read back as
+	*/
+	static double round(double v) {
+		return Math.round(v*1e6)/1e6;
+	}
+
+	/**
+	* Writes a grid to a file in the text input data format
+	*
+	*@param grid Grid to be written
+	*@param fileName Name of the file to write to
+	*@throws IOException If the file cannot be written
+	*/
+	public static void writeText(CloudGrid grid, String fileName) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16)) {
+			out.write((grid.dimt+" "+grid.dimx+" "+grid.dimy+"\n").getBytes(StandardCharsets.US_ASCII));
+			byte[] line = new byte[64];
+			for(int pos = 0; pos < grid.size(); pos++) {
+				int len = format(grid.windx[pos], line, 0);
+				line[len++] = ' ';
+				len = format(grid.windy[pos], line, len);
+				line[len++] = ' ';
+				len = format(grid.convection[pos], line, len);
+				line[len++] = '\n';
+				out.write(line, 0, len);
+			}
+		}
+	}
+
+	/**
+	* Formats a value with six decimal places, as printf("%f") would
+	*
+	*@return Integer value representing the position after the last byte written
+	*/
+	static int format(double v, byte[] buf, int off) {
+		long micros = Math.round(v*1e6);
+		if(micros < 0) {
+			buf[off++] = '-';
+			micros = -micros;
+		}
+		String whole = Long.toString(micros/1000000);
+		for(int i = 0; i < whole.length(); i++) {
+			buf[off++] = (byte)whole.charAt(i);
+		}
+		buf[off++] = '.';
+		long frac = micros%1000000;
+		for(int d = 100000; d > 0; d /= 10) {
+			buf[off++] = (byte)('0' + (frac/d)%10);
+		}
+		return off;
+	}
+
+	/**
+	* Generates a grid and writes it to a file
+	*
+	*@param args Dimensions dimt, dimx and dimy, seed, output file, and the format, text or binary
+	*/
+	public static void main(String[] args) {
+		String usage = "Usage: java GridGenerator [dimt] [dimx] [dimy] [seed] [output file] [text|binary]";
+		if(args.length != 6 || !(args[5].equals("text") || args[5].equals("binary"))) {
+			System.out.println(usage);
+			return;
+		}
+		try {
+			int dimt = Integer.parseInt(args[0]), dimx = Integer.parseInt(args[1]), dimy = Integer.parseInt(args[2]);
+			if(dimt < 1 || dimx < 1 || dimy < 1 || (long)dimt*dimx*dimy > Integer.MAX_VALUE) {
+				System.out.println("Dimensions must be positive and hold at most "+Integer.MAX_VALUE+" gridpoints");
+				return;
+			}
+			CloudGrid grid = generate(dimt, dimx, dimy, Long.parseLong(args[3]), ForkJoinPool.commonPool());
+			if(args[5].equals("text")) {
+				writeText(grid, args[4]);
+			}
+			else {
+				GridFile.write(grid, args[4]);
+			}
+			System.out.println("Wrote "+grid.size()+" gridpoints to "+args[4]);
+		}
+		catch (NumberFormatException e) {
+			System.out.println(usage);
+		}
+		catch (IOException e) {
+			System.out.println("Unable to write grid file "+args[4]);
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,389 @@
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.TreeSet;
+import java.util.Vector;
+
+/**
+ * Saved state of a classified grid that can be updated in place when a few gridpoints change
+ *
+ *<p>
+ *The state file holds the grid values, the classification of every gridpoint and the wind sums of WindSums: the sum of every block, the inner nodes of each slice's pairwise tree, the slice sums and the inner nodes of the tree over the slices. Applying a delta file rewrites the changed gridpoints, classifies each changed gridpoint and its neighbours again with findCloud, sums the changed blocks again and adds the tree nodes on their paths to the root again. Only these values are read and written, so the cost depends on the size of the delta rather than the grid, and the result has the same bits as classifying the updated grid from scratch.
+ *</p>
+ *<p>
+ *Can be run from the command line:
+ *java IncrementalState save [input data file] [state file]
+ *java IncrementalState apply [state file] [delta file] [output data file]
+ *where each line of the delta file holds the t, x and y indices of a gridpoint followed by its new x wind, y wind and uplift values. The output data file is optional.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class IncrementalState {
+
+	static final int MAGIC = 0x534c4443; // "CLDS" when read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+
+	FileChannel channel;
+	int dimt, dimx, dimy;
+	int width, tiles; // block layout of WindSums
+	long windxAt, windyAt, convAt, blockxAt, blockyAt, nodexAt, nodeyAt, slicexAt, sliceyAt, snodexAt, snodeyAt; // byte offsets of the double arrays
+	long clasAt; // byte offset of the classification, one byte per gridpoint
+	ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+	IncrementalState(FileChannel channel, int t, int x, int y) {
+		this.channel = channel;
+		dimt = t; dimx = x; dimy = y;
+		width = TiledClouds.tileWidth(dimy);
+		tiles = TiledClouds.columnTiles(dimy);
+		long size = (long)dimt*dimx*dimy;
+		long blocks = (long)dimt*dimx*tiles;
+		windxAt = HEADER_SIZE;
+		windyAt = windxAt + 8*size;
+		convAt = windyAt + 8*size;
+		blockxAt = convAt + 8*size;
+		blockyAt = blockxAt + 8*blocks;
+		nodexAt = blockyAt + 8*blocks;
+		nodeyAt = nodexAt + 8*blocks;
+		slicexAt = nodeyAt + 8*blocks;
+		sliceyAt = slicexAt + 8L*dimt;
+		snodexAt = sliceyAt + 8L*dimt;
+		snodeyAt = snodexAt + 8L*dimt;
+		clasAt = snodeyAt + 8L*dimt;
+	}
+
+	/**
+	* Writes the state of a classified grid to a file
+	*
+	*@param grid Grid holding the wind and uplift values
+	*@param classification Packed classification of cloud types found for the grid
+	*@param sums Block sums filled in while classifying the whole grid
+	*@param fileName Name of the state file to write
+	*@throws IOException If the file cannot be written
+	*/
+	public static void save(CloudGrid grid, PackedClassification classification, WindSums sums, String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+			FileChannel channel = file.getChannel()) {
+			IncrementalState state = new IncrementalState(channel, grid.dimt, grid.dimx, grid.dimy);
+			file.setLength(state.clasAt + (long)grid.size());
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(grid.dimt).putInt(grid.dimx).putInt(grid.dimy);
+			header.clear();
+			channel.write(header, 0);
+			GridFile.writeArray(channel, state.windxAt, grid.windx);
+			GridFile.writeArray(channel, state.windyAt, grid.windy);
+			GridFile.writeArray(channel, state.convAt, grid.convection);
+
+			int perSlice = grid.dimx*state.tiles;
+			double[] nodex = new double[sums.blockx.length];
+			double[] nodey = new double[sums.blocky.length];
+			double[] slicex = new double[grid.dimt];
+			double[] slicey = new double[grid.dimt];
+			for(int t = 0; t < grid.dimt; t++) {
+				slicex[t] = WindSums.build(sums.blockx, nodex, t*perSlice, (t+1)*perSlice);
+				slicey[t] = WindSums.build(sums.blocky, nodey, t*perSlice, (t+1)*perSlice);
+			}
+			double[] snodex = new double[grid.dimt];
+			double[] snodey = new double[grid.dimt];
+			WindSums.build(slicex, snodex, 0, grid.dimt);
+			WindSums.build(slicey, snodey, 0, grid.dimt);
+			GridFile.writeArray(channel, state.blockxAt, sums.blockx);
+			GridFile.writeArray(channel, state.blockyAt, sums.blocky);
+			GridFile.writeArray(channel, state.nodexAt, nodex);
+			GridFile.writeArray(channel, state.nodeyAt, nodey);
+			GridFile.writeArray(channel, state.slicexAt, slicex);
+			GridFile.writeArray(channel, state.sliceyAt, slicey);
+			GridFile.writeArray(channel, state.snodexAt, snodex);
+			GridFile.writeArray(channel, state.snodeyAt, snodey);
+
+			byte[] slice = new byte[grid.dimx*grid.dimy];
+			for(int t = 0; t < grid.dimt; t++) {
+				for(int x = 0; x < grid.dimx; x++) {
+					for(int y = 0; y < grid.dimy; y++) {
+						slice[x*grid.dimy + y] = (byte)classification.get(t, x, y);
+					}
+				}
+				CloudWriter.writeFully(channel.position(state.clasAt + (long)t*slice.length), ByteBuffer.wrap(slice));
+			}
+		}
+	}
+
+	/**
+	* Opens a state file for reading and updating
+	*
+	*@param fileName Name of the state file
+	*@return IncrementalState reading and writing the file
+	*@throws IOException If the file cannot be opened or is not a valid state file
+	*/
+	public static IncrementalState open(String fileName) throws IOException {
+		FileChannel channel = new RandomAccessFile(fileName, "rw").getChannel();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		channel.read(header, 0);
+		if(header.getInt(0) != MAGIC) {
+			channel.close();
+			throw new IOException("Not a state file: "+fileName);
+		}
+		if(header.getInt(4) != VERSION) {
+			channel.close();
+			throw new IOException("Unsupported state file version "+header.getInt(4));
+		}
+		IncrementalState state = new IncrementalState(channel, header.getInt(8), header.getInt(12), header.getInt(16));
+		if(channel.size() < state.clasAt + (long)state.dimt*state.dimx*state.dimy) {
+			channel.close();
+			throw new IOException("Truncated state file: "+fileName);
+		}
+		return state;
+	}
+
+	/**
+	* Closes the state file
+	*
+	*@throws IOException If the file cannot be closed
+	*/
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	* Applies the changes listed in a delta file to the state
+	*
+	*@param deltaFile Name of the file listing changed gridpoints
+	*@return Integer value representing the number of gridpoints classified again
+	*@throws IOException If either file cannot be accessed or a line of the delta file is invalid
+	*/
+	public int apply(String deltaFile) throws IOException {
+		TreeSet<Long> reclassify = new TreeSet<Long>(); // linear positions whose neighbourhood changed
+		TreeSet<Long> blocks = new TreeSet<Long>(); // blocks holding a changed gridpoint
+		try (BufferedReader in = new BufferedReader(new FileReader(deltaFile))) {
+			String line;
+			while((line = in.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty()) {
+					continue;
+				}
+				String[] tokens = line.split("\\s+");
+				int t, x, y;
+				double wx, wy, conv;
+				try {
+					t = Integer.parseInt(tokens[0]); x = Integer.parseInt(tokens[1]); y = Integer.parseInt(tokens[2]);
+					wx = Double.parseDouble(tokens[3]); wy = Double.parseDouble(tokens[4]); conv = Double.parseDouble(tokens[5]);
+				}
+				catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					throw new IOException("Invalid delta line: "+line);
+				}
+				if(t < 0 || t >= dimt || x < 0 || x >= dimx || y < 0 || y >= dimy) {
+					throw new IOException("Gridpoint out of range: "+line);
+				}
+				long pos = index(t, x, y);
+				putDouble(windxAt, pos, wx);
+				putDouble(windyAt, pos, wy);
+				putDouble(convAt, pos, conv);
+				for(int i = Math.max(x-1, 0); i <= Math.min(x+1, dimx-1); i++) {
+					for(int j = Math.max(y-1, 0); j <= Math.min(y+1, dimy-1); j++) {
+						reclassify.add(index(t, i, j));
+					}
+				}
+				blocks.add(((long)t*dimx + x)*tiles + y/width);
+			}
+		}
+
+		for(long pos : reclassify) {
+			classify(pos);
+		}
+
+		int perSlice = dimx*tiles;
+		TreeSet<Integer> slices = new TreeSet<Integer>();
+		for(long block : blocks) {
+			int t = (int)(block/perSlice);
+			long row = block/tiles;
+			int y0 = (int)(block%tiles)*width;
+			int y1 = Math.min(dimy, y0+width);
+			double[] values = new double[y1-y0];
+			readDoubles(windxAt, row*dimy + y0, values);
+			putDouble(blockxAt, block, WindSums.compensatedSum(values, 0, values.length));
+			readDoubles(windyAt, row*dimy + y0, values);
+			putDouble(blockyAt, block, WindSums.compensatedSum(values, 0, values.length));
+			long base = (long)t*perSlice;
+			putDouble(slicexAt, t, update(blockxAt, nodexAt, base, 0, perSlice, (int)(block-base)));
+			putDouble(sliceyAt, t, update(blockyAt, nodeyAt, base, 0, perSlice, (int)(block-base)));
+			slices.add(t);
+		}
+		for(int t : slices) {
+			update(slicexAt, snodexAt, 0, 0, dimt, t);
+			update(sliceyAt, snodeyAt, 0, 0, dimt, t);
+		}
+		return reclassify.size();
+	}
+
+	/**
+	* Classifies one gridpoint again from the values of its neighbourhood
+	*
+	*<p>
+	*The neighbourhood is copied into a small grid cut at the same edges as the full grid, so findCloud adds the same values in the same order.
+	*</p>
+	*/
+	void classify(long pos) throws IOException {
+		int t = (int)(pos/((long)dimx*dimy));
+		int x = (int)(pos/dimy%dimx);
+		int y = (int)(pos%dimy);
+		int x0 = Math.max(x-1, 0), x1 = Math.min(x+1, dimx-1);
+		int y0 = Math.max(y-1, 0), y1 = Math.min(y+1, dimy-1);
+		int cols = y1-y0+1;
+		CloudGrid local = new CloudGrid(1, x1-x0+1, cols);
+		double[] row = new double[cols];
+		for(int i = x0; i <= x1; i++) {
+			long start = index(t, i, y0);
+			readDoubles(windxAt, start, row);
+			System.arraycopy(row, 0, local.windx, (i-x0)*cols, cols);
+			readDoubles(windyAt, start, row);
+			System.arraycopy(row, 0, local.windy, (i-x0)*cols, cols);
+			readDoubles(convAt, start, row);
+			System.arraycopy(row, 0, local.convection, (i-x0)*cols, cols);
+		}
+		scratch.clear().put(0, (byte)CloudKernel.findCloud(local, 0, x-x0, y-y0)).limit(1);
+		channel.write(scratch, clasAt + pos);
+	}
+
+	/**
+	* Adds again the tree nodes on the path from one value to the root, in the order used by WindSums.build
+	*
+	*@return Double value representing the sum of the range [lo, hi)
+	*/
+	double update(long leavesAt, long nodesAt, long base, int lo, int hi, int i) throws IOException {
+		if(hi-lo == 1) {
+			return getDouble(leavesAt, base+lo);
+		}
+		int mid = (lo+hi) >>> 1;
+		double left = (i < mid) ? update(leavesAt, nodesAt, base, lo, mid, i) : node(leavesAt, nodesAt, base, lo, mid);
+		double right = (i < mid) ? node(leavesAt, nodesAt, base, mid, hi) : update(leavesAt, nodesAt, base, mid, hi, i);
+		double sum = left + right;
+		putDouble(nodesAt, base+mid, sum);
+		return sum;
+	}
+
+	/**
+	* Returns the stored sum of the range [lo, hi)
+	*/
+	double node(long leavesAt, long nodesAt, long base, int lo, int hi) throws IOException {
+		return (hi-lo == 1) ? getDouble(leavesAt, base+lo) : getDouble(nodesAt, base+((lo+hi) >>> 1));
+	}
+
+	/**
+	* Computes the prevailing wind from the stored slice sums
+	*
+	*@return Vector of doubles representing the average x and y wind values
+	*@throws IOException If the state file cannot be read
+	*/
+	public Vector<Double> wind() throws IOException {
+		double numPoints = (double)dimt*dimx*dimy;
+		Vector<Double> wind = new Vector<Double>();
+		wind.add(node(slicexAt, snodexAt, 0, 0, dimt)/numPoints);
+		wind.add(node(sliceyAt, snodeyAt, 0, 0, dimt)/numPoints);
+		return wind;
+	}
+
+	/**
+	* Writes the prevailing wind and classification held in the state to a text output file
+	*
+	*@param fileName Name of file to write data to
+	*@throws IOException If either file cannot be accessed
+	*/
+	public void writeOutput(String fileName) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(dimx*dimy);
+		PackedClassification slice = new PackedClassification(1, dimx, dimy);
+		byte[] line = new byte[CloudWriter.sliceBytes(dimx, dimy)];
+		try (OutputStream out = new FileOutputStream(fileName)) {
+			out.write(CloudWriter.header(dimt, dimx, dimy, wind()));
+			for(int t = 0; t < dimt; t++) {
+				bytes.clear();
+				while(bytes.hasRemaining() && channel.read(bytes, clasAt + (long)t*dimx*dimy + bytes.position()) >= 0);
+				for(int x = 0; x < dimx; x++) {
+					for(int y = 0; y < dimy; y++) {
+						slice.set(0, x, y, bytes.get(x*dimy + y));
+					}
+				}
+				CloudWriter.formatSlice(slice, 0, line);
+				out.write(line);
+			}
+		}
+	}
+
+	long index(int t, int x, int y) {
+		return ((long)t*dimx + x)*dimy + y;
+	}
+
+	double getDouble(long at, long i) throws IOException {
+		scratch.clear();
+		while(scratch.hasRemaining() && channel.read(scratch, at + 8*i + scratch.position()) >= 0);
+		return scratch.getDouble(0);
+	}
+
+	void putDouble(long at, long i, double v) throws IOException {
+		scratch.clear();
+		scratch.putDouble(0, v);
+		while(scratch.hasRemaining()) {
+			channel.write(scratch, at + 8*i + scratch.position());
+		}
+	}
+
+	void readDoubles(long at, long i, double[] values) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(8*values.length).order(ByteOrder.LITTLE_ENDIAN);
+		while(bytes.hasRemaining() && channel.read(bytes, at + 8*i + bytes.position()) >= 0);
+		bytes.flip();
+		bytes.asDoubleBuffer().get(values);
+	}
+
+	/**
+	* Saves the state of an input file, or applies a delta file to a saved state
+	*
+	*@param args Either save followed by the input data file and state file, or apply followed by the state file, delta file and optional output data file
+	*/
+	public static void main(String[] args) {
+		String usage = "Usage: java IncrementalState save [input data file] [state file]\n"
+			+ "       java IncrementalState apply [state file] [delta file] [output data file]";
+		try {
+			if(args.length == 3 && args[0].equals("save")) {
+				CloudData cd = new CloudData();
+				cd.readData(args[1]);
+				if(cd.grid == null) {
+					return;
+				}
+				cd.scaledt = cd.dimt;
+				cd.analyseData(0);
+				save(cd.grid, cd.classification, cd.sums, args[2]);
+				System.out.println("Saved state of "+cd.grid.size()+" gridpoints to "+args[2]);
+			}
+			else if((args.length == 3 || args.length == 4) && args[0].equals("apply")) {
+				IncrementalState state = open(args[1]);
+				try {
+					int count = state.apply(args[2]);
+					System.out.println("Classified "+count+" gridpoints again");
+					Vector<Double> wind = state.wind();
+					System.out.println(String.format("%f %f", wind.get(0), wind.get(1)));
+					if(args.length == 4) {
+						state.writeOutput(args[3]);
+					}
+				}
+				finally {
+					state.close();
+				}
+			}
+			else {
+				System.out.println(usage);
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Unable to update state: "+e.getMessage());
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Classifies binary grid files larger than memory, keeping the input and the classification in memory-mapped files
+ *
+ *<p>
+ *The time slices are processed in windows of as many whole slices as fit in a fixed budget. For each window, the regions of the three value arrays of the GridFile are mapped, copied in bulk into a heap window grid that is reused for every window, and classified in parallel using WriteClouds. The packed classification of the window is then stored straight into the mapped region of the result file. Only the mappings of the current window are referenced, so the operating system pages the rest of both files in and out as needed, and the heap used does not grow with the size of the dataset. The copy from a mapped window is a memory copy out of the page cache, which lets the classification kernels keep working on plain arrays.
+ *</p>
+ *<p>
+ *The result is written in the binary format of ResultFile, or, for text output, into a result file next to the output that is then formatted window by window and deleted. WindSums reduces each window as SliceStreamer reduces each slice, so the output and the prevailing wind are identical to the other modes.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class OutOfCoreEngine {
+
+	static final long DEFAULT_WINDOW_BYTES = 64L << 20; // input values held on the heap at once
+
+	ForkJoinPool pool;
+	boolean simd; // classify using SimdKernel
+	int cutoff; // sequential cutoff of WriteClouds
+	boolean autoCutoff; // calibrate the cutoff on the first window
+	int radius = 1; // neighbourhood radius, 1 for the 3x3 neighbourhood
+	long windowBytes = DEFAULT_WINDOW_BYTES;
+
+	/**
+	*Creates a new engine that classifies each window using the given pool
+	*
+	*@param pool Pool used to run WriteClouds tasks
+	*@param simd Whether to classify using SimdKernel rather than the scalar kernel
+	*@param cutoff Sequential cutoff of WriteClouds, or 0 for the default
+	*@param autoCutoff Whether to find the cutoff using CutoffTuner once the first window has been read
+	*/
+	public OutOfCoreEngine(ForkJoinPool pool, boolean simd, int cutoff, boolean autoCutoff) {
+		this.pool = pool;
+		this.simd = simd;
+		this.cutoff = (cutoff == 0) ? WriteClouds.SEQUENTIAL_CUTOFF : cutoff;
+		this.autoCutoff = autoCutoff;
+	}
+
+	/**
+	* Classifies every time slice of a binary grid file and writes the output file
+	*
+	*@param input Name of the binary grid file to read data from
+	*@param output Name of file to write data to
+	*@param binary Whether to write the output in the binary result format rather than the text format
+	*@return Vector of doubles representing the average x and y wind values
+	*@throws IOException If either file cannot be accessed, or the input is not a binary grid file
+	*/
+	public Vector<Double> run(String input, String output, boolean binary) throws IOException {
+		if(!GridFile.isGridFile(input)) {
+			throw new IOException("Not a binary grid file: "+input+", convert it using java GridFile");
+		}
+		File result = binary ? new File(output) : new File(output+".packed");
+		try (RandomAccessFile in = new RandomAccessFile(input, "r");
+			FileChannel source = in.getChannel();
+			RandomAccessFile out = new RandomAccessFile(result, "rw");
+			FileChannel target = out.getChannel()) {
+			int[] dims = GridFile.readHeader(source, input, Long.MAX_VALUE); // only a window of slices is held
+			int dimt = dims[0], dimx = dims[1], dimy = dims[2];
+			int sliceSize = dimx*dimy;
+			long sliceBytes = (long)dimx*((dimy + 3) >> 2); // packed bytes per slice
+			int window = (int)Math.max(1, Math.min(dimt, windowBytes/(24L*sliceSize)));
+			out.setLength(ResultFile.HEADER_SIZE + dimt*sliceBytes);
+
+			CloudGrid grid = new CloudGrid(window, dimx, dimy);
+			PackedClassification classification = new PackedClassification(window, dimx, dimy);
+			double[] slicex = new double[dimt];
+			double[] slicey = new double[dimt];
+			long arrayBytes = 8L*dimt*sliceSize;
+			WindSums sums = null;
+			for(int t0 = 0; t0 < dimt; t0 += window) {
+				int count = Math.min(window, dimt-t0);
+				CloudGrid part = (count == window) ? grid : grid.reshape(count, dimx, dimy);
+				if(sums == null || !sums.fits(part)) {
+					sums = new WindSums(part);
+				}
+				RunMetrics.Timer load = RunMetrics.start(RunMetrics.LOAD);
+				long offset = GridFile.HEADER_SIZE + 8L*t0*sliceSize;
+				mapValues(source, offset, part.windx, count*sliceSize);
+				mapValues(source, offset + arrayBytes, part.windy, count*sliceSize);
+				mapValues(source, offset + 2*arrayBytes, part.convection, count*sliceSize);
+				load.stop();
+				if(t0 == 0 && autoCutoff) {
+					CloudGrid first = part;
+					WindSums firstSums = sums;
+					String key = CutoffTuner.key(count*sliceSize, simd ? "simd" : "scalar", "linear");
+					cutoff = CutoffTuner.cutoffFor(key, c -> pool.invoke(new WriteClouds(classification, first, 0, first.size(), c, simd, firstSums, radius)));
+				}
+
+				RunMetrics.Timer classify = RunMetrics.start(RunMetrics.CLASSIFY);
+				pool.invoke(new WriteClouds(classification, part, 0, count*sliceSize, cutoff, simd, sums, radius));
+				sums.reduceSlices(0, count); // same blocks and order as CloudData.findAverage
+				System.arraycopy(sums.slicex, 0, slicex, t0, count);
+				System.arraycopy(sums.slicey, 0, slicey, t0, count);
+				classify.stop();
+
+				RunMetrics.Timer write = RunMetrics.start(RunMetrics.WRITE);
+				MappedByteBuffer region = target.map(FileChannel.MapMode.READ_WRITE, ResultFile.HEADER_SIZE + t0*sliceBytes, count*sliceBytes);
+				region.put(classification.data, 0, (int)(count*sliceBytes));
+				write.stop();
+			}
+
+			long numPoints = (long)dimt*sliceSize;
+			Vector<Double> wind = new Vector<Double>();
+			wind.add(WindSums.pairwise(slicex, 0, dimt)/numPoints);
+			wind.add(WindSums.pairwise(slicey, 0, dimt)/numPoints);
+			ResultFile.writeFully(target, ResultFile.header(dimt, dimx, dimy, wind), 0);
+			if(!binary) {
+				RunMetrics.Timer write = RunMetrics.start(RunMetrics.WRITE);
+				writeText(target, output, dimt, dimx, dimy, window, classification, wind);
+				write.stop();
+			}
+			return wind;
+		}
+		finally {
+			if(!binary) {
+				result.delete();
+			}
+		}
+	}
+
+	/**
+	* Maps a region of one of the value arrays of the grid file and copies it into a heap array
+	*/
+	static void mapValues(FileChannel source, long offset, double[] values, int count) throws IOException {
+		source.map(FileChannel.MapMode.READ_ONLY, offset, 8L*count).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values, 0, count);
+	}
+
+	/**
+	* Formats the mapped result file into the text output format, a window of slices at a time
+	*/
+	static void writeText(FileChannel result, String output, int dimt, int dimx, int dimy, int window, PackedClassification classification, Vector<Double> wind) throws IOException {
+		long sliceBytes = (long)dimx*classification.rowBytes;
+		byte[] line = new byte[CloudWriter.sliceBytes(dimx, dimy)];
+		try (OutputStream out = new FileOutputStream(output)) {
+			out.write(CloudWriter.header(dimt, dimx, dimy, wind));
+			for(int t0 = 0; t0 < dimt; t0 += window) {
+				int count = Math.min(window, dimt-t0);
+				result.map(FileChannel.MapMode.READ_ONLY, ResultFile.HEADER_SIZE + t0*sliceBytes, count*sliceBytes).get(classification.data, 0, (int)(count*sliceBytes));
+				for(int t = 0; t < count; t++) {
+					CloudWriter.formatSlice(classification, t, line);
+					out.write(line);
+				}
+			}
+		}
+	}
+}
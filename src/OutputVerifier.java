@@ -0,0 +1,234 @@
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compares a classification with the known correct output using parallelization, summarising the mismatches instead of reporting each one
+ *
+ *<p>
+ *The rows of the grid are divided between threads, each comparing the packed bytes of whole rows with Arrays.mismatch, four gridpoints at a time. Mismatches are counted per time slice, and the coordinates of the first few, by linear position, are kept for the report. In fail-fast mode the first mismatch found stops the remaining tasks, so a wrong run is rejected without comparing the rest of the grid; the counts are then only a lower bound. The prevailing wind is compared by absolute difference, so deviations in either direction are caught.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class OutputVerifier {
+
+	static final int DEFAULT_LIMIT = 10; // mismatching gridpoints listed in the report
+	static final int SEQUENTIAL_CUTOFF = 1 << 16; // gridpoints compared sequentially by a leaf task
+
+	PackedClassification expected;
+	int limit;
+	boolean failFast;
+
+	/**
+	*Creates a verifier for the given correct classification
+	*
+	*@param expected Packed classification of known correct cloud types
+	*@param limit Number of mismatching gridpoints to list in the report
+	*@param failFast Whether to stop comparing once a mismatch is found
+	*/
+	public OutputVerifier(PackedClassification expected, int limit, boolean failFast) {
+		this.expected = expected;
+		this.limit = limit;
+		this.failFast = failFast;
+	}
+
+	/**
+	* Compares the first time slices of a classification, and optionally the prevailing wind
+	*
+	*@param pool Pool used to compare rows in parallel
+	*@param actual Packed classification of computed cloud types
+	*@param slices Number of time slices to compare
+	*@param wind Computed prevailing wind, or null to skip the wind comparison
+	*@param checkWind Known correct prevailing wind
+	*@param epsilon Largest absolute difference allowed in either wind component
+	*@return Report summarising the differences
+	*/
+	public Report verify(ForkJoinPool pool, PackedClassification actual, int slices, Vector<Double> wind, Vector<Double> checkWind, double epsilon) {
+		Report report = new Report();
+		int dimx = Math.min(actual.dimx, expected.dimx);
+		int dimy = Math.min(actual.dimy, expected.dimy);
+		report.dimensionsMatch = actual.dimx == expected.dimx && actual.dimy == expected.dimy && slices <= expected.dimt;
+		slices = Math.min(slices, expected.dimt);
+		report.perSlice = new AtomicLongArray(slices);
+		report.limit = limit;
+		if(wind != null) {
+			report.windDeltaX = Math.abs(wind.get(0) - checkWind.get(0));
+			report.windDeltaY = Math.abs(wind.get(1) - checkWind.get(1));
+			report.windMatches = report.windDeltaX <= epsilon && report.windDeltaY <= epsilon; // also false if either is NaN
+		}
+		pool.invoke(new CompareRows(actual, report, dimx, dimy, 0, slices*dimx));
+		return report;
+	}
+
+	/**
+	 * Threaded class to compare a range of rows, numbered t*dimx + x, using parallelization
+	 */
+	class CompareRows extends RecursiveAction {
+		PackedClassification actual;
+		Report report;
+		int dimx, dimy;
+		int lo, hi;
+
+		CompareRows(PackedClassification actual, Report report, int dimx, int dimy, int lo, int hi) {
+			this.actual = actual; this.report = report; this.dimx = dimx; this.dimy = dimy; this.lo = lo; this.hi = hi;
+		}
+
+		protected void compute() {
+			if(failFast && report.stopped) {
+				return;
+			}
+			if((long)(hi-lo)*dimy < SEQUENTIAL_CUTOFF || hi-lo == 1) {
+				compareRows();
+			}
+			else {
+				CompareRows left = new CompareRows(actual, report, dimx, dimy, lo, (hi+lo)/2);
+				CompareRows right = new CompareRows(actual, report, dimx, dimy, (hi+lo)/2, hi);
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+
+		/**
+		* Compares each row of the range, counting mismatches per time slice and keeping the first few
+		*/
+		void compareRows() {
+			long[] found = new long[limit];
+			int kept = 0;
+			long count = 0;
+			byte[] a = actual.data, b = expected.data;
+			int bytes = (dimy + 3) >> 2; // bytes holding the compared gridpoints of a row
+			for(int r = lo; r < hi; r++) {
+				int t = r/dimx, x = r%dimx;
+				int offA = actual.rowOffset(t, x), offB = expected.rowOffset(t, x);
+				long rowCount = 0;
+				int i = Arrays.mismatch(a, offA, offA+bytes, b, offB, offB+bytes);
+				while(i >= 0) {
+					for(int y = 4*i; y < Math.min(4*i+4, dimy); y++) { // find the gridpoints differing within the byte
+						if(actual.get(t, x, y) != expected.get(t, x, y)) {
+							rowCount++;
+							if(kept < limit) {
+								found[kept++] = (long)r*dimy + y;
+							}
+						}
+					}
+					if((failFast && rowCount > 0) || i+1 >= bytes) {
+						break;
+					}
+					int next = Arrays.mismatch(a, offA+i+1, offA+bytes, b, offB+i+1, offB+bytes);
+					i = (next < 0) ? -1 : i+1+next;
+				}
+				if(rowCount > 0) {
+					report.perSlice.addAndGet(t, rowCount);
+					count += rowCount;
+					if(failFast) {
+						report.stopped = true;
+						break;
+					}
+				}
+				if(failFast && report.stopped) {
+					break;
+				}
+			}
+			if(count > 0) {
+				report.record(found, kept, dimx, dimy, expected, actual);
+			}
+		}
+	}
+
+	/**
+	 * Summary of the differences between a computed output and the correct output
+	 */
+	public static class Report {
+		boolean dimensionsMatch = true;
+		boolean windMatches = true;
+		double windDeltaX, windDeltaY; // absolute differences of the wind components
+		AtomicLongArray perSlice; // mismatching gridpoints per time slice
+		volatile boolean stopped = false; // set when fail-fast stopped the comparison early
+		int limit;
+		PriorityQueue<Long> first = new PriorityQueue<Long>((a, b) -> Long.compare(b, a)); // lowest mismatching positions, largest at the head
+		String[] firstLines; // descriptions of the kept mismatches, filled in order by summary
+
+		/**
+		* Keeps the lowest of the given mismatching positions, merging with those found by other tasks
+		*/
+		synchronized void record(long[] found, int kept, int dimx, int dimy, PackedClassification expected, PackedClassification actual) {
+			for(int i = 0; i < kept; i++) {
+				first.add(found[i]);
+				if(first.size() > limit) {
+					first.poll();
+				}
+			}
+			long[] sorted = first.stream().mapToLong(Long::longValue).sorted().toArray();
+			firstLines = new String[sorted.length];
+			for(int i = 0; i < sorted.length; i++) {
+				long pos = sorted[i];
+				int t = (int)(pos/((long)dimx*dimy));
+				int x = (int)(pos/dimy%dimx);
+				int y = (int)(pos%dimy);
+				firstLines[i] = "("+t+", "+x+", "+y+") expected "+expected.get(t, x, y)+", found "+actual.get(t, x, y);
+			}
+		}
+
+		/**
+		* Computes the number of mismatching gridpoints found
+		*
+		*@return Long value representing the total mismatch count, a lower bound if the comparison stopped early
+		*/
+		public long mismatches() {
+			long total = 0;
+			for(int t = 0; t < perSlice.length(); t++) {
+				total += perSlice.get(t);
+			}
+			return total;
+		}
+
+		/**
+		* Checks whether the output matched in every respect compared
+		*
+		*@return Boolean value indicating whether the output is correct
+		*/
+		public boolean isCorrect() {
+			return dimensionsMatch && windMatches && mismatches() == 0;
+		}
+
+		/**
+		* Describes the differences found, one line per kind of difference
+		*
+		*@return String holding the summary, empty if the output is correct
+		*/
+		public synchronized String summary() {
+			StringBuilder sb = new StringBuilder();
+			if(!windMatches) {
+				sb.append(String.format("Average wind does not match, differs by (%g, %g)\n", windDeltaX, windDeltaY));
+			}
+			if(!dimensionsMatch) {
+				sb.append("Dimensions differ\n");
+			}
+			long total = mismatches();
+			if(total > 0) {
+				sb.append("Classification is incorrect: ").append(total).append(stopped ? " or more" : "").append(" mismatching gridpoints\n");
+				sb.append("Mismatches per time slice:");
+				for(int t = 0; t < perSlice.length(); t++) {
+					if(perSlice.get(t) > 0) {
+						sb.append(" t=").append(t).append(": ").append(perSlice.get(t));
+					}
+				}
+				sb.append('\n');
+				if(firstLines != null) {
+					sb.append("First mismatches:\n");
+					for(String line : firstLines) {
+						sb.append("  ").append(line).append('\n');
+					}
+				}
+			}
+			return sb.toString();
+		}
+	}
+}
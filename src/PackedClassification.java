@@ -0,0 +1,131 @@
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Holds the cloud type of every gridpoint using 2 bits per gridpoint, four gridpoints to a byte
+ *
+ *<p>
+ *Cloud types are only ever 0, 1 or 2, so a byte holds the types of four neighbouring gridpoints of a row, the first in the lowest two bits. Every row starts on a new byte, with the unused bits of its last byte left as zero, so two rows never share a byte. The thread classes only split rows at multiples of four gridpoints, so threads writing different parts of the grid never write to the same byte. Rows are written and read in bulk with setRow and getRow.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class PackedClassification {
+
+	static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+	int dimt, dimx, dimy; // dimensions of the grid
+	int rowBytes; // bytes per row, a row of dimy gridpoints rounded up to a multiple of four
+	byte[] data;
+
+	/**
+	*Creates a new classification of the given dimensions with every gridpoint set to 0
+	*
+	*@param t Number of timesteps
+	*@param x Number of gridpoints in the x direction
+	*@param y Number of gridpoints in the y direction
+	*/
+	public PackedClassification(int t, int x, int y) {
+		dimt = t; dimx = x; dimy = y;
+		rowBytes = (y + 3) >> 2;
+		data = new byte[t*x*rowBytes];
+	}
+
+	/**
+	* Computes the position in data of the first byte of a row
+	*
+	*@param t Time value of the row
+	*@param x x position of the row
+	*@return Integer value representing the offset of the row
+	*/
+	public int rowOffset(int t, int x) {
+		return (t*dimx + x)*rowBytes;
+	}
+
+	/**
+	* Returns the cloud type of a gridpoint
+	*
+	*@param t Time value of the gridpoint
+	*@param x x position of the gridpoint
+	*@param y y position of the gridpoint
+	*@return Integer value representing the cloud type
+	*/
+	public int get(int t, int x, int y) {
+		return (data[rowOffset(t, x) + (y >> 2)] >> ((y & 3) << 1)) & 3;
+	}
+
+	/**
+	* Sets the cloud type of a gridpoint
+	*
+	*<p>
+	*Not safe against other threads writing to the same group of four gridpoints; use setAtomic for that.
+	*</p>
+	*@param t Time value of the gridpoint
+	*@param x x position of the gridpoint
+	*@param y y position of the gridpoint
+	*@param type Cloud type, 0, 1 or 2
+	*/
+	public void set(int t, int x, int y, int type) {
+		int i = rowOffset(t, x) + (y >> 2);
+		int shift = (y & 3) << 1;
+		data[i] = (byte)((data[i] & ~(3 << shift)) | (type << shift));
+	}
+
+	/**
+	* Sets the cloud type of a gridpoint, safely against other threads setting gridpoints sharing its byte
+	*
+	*@param t Time value of the gridpoint
+	*@param x x position of the gridpoint
+	*@param y y position of the gridpoint
+	*@param type Cloud type, 0, 1 or 2
+	*/
+	public void setAtomic(int t, int x, int y, int type) {
+		int i = rowOffset(t, x) + (y >> 2);
+		int shift = (y & 3) << 1;
+		byte old, updated;
+		do {
+			old = (byte)BYTES.getVolatile(data, i);
+			updated = (byte)((old & ~(3 << shift)) | (type << shift));
+		} while(!BYTES.compareAndSet(data, i, old, updated));
+	}
+
+	/**
+	* Copies the cloud types of a whole row into an array
+	*
+	*@param t Time value of the row
+	*@param x x position of the row
+	*@param out Array of at least dimy values to fill
+	*/
+	public void getRow(int t, int x, int[] out) {
+		int off = rowOffset(t, x);
+		for(int y = 0; y < dimy; y++) {
+			out[y] = (data[off + (y >> 2)] >> ((y & 3) << 1)) & 3;
+		}
+	}
+
+	/**
+	* Sets the cloud types of a run of gridpoints within a row
+	*
+	*@param t Time value of the row
+	*@param x x position of the row
+	*@param y0 y position of the first gridpoint, a multiple of four for threads to write neighbouring runs safely
+	*@param y1 y position after the last gridpoint, a multiple of four or dimy
+	*@param types Array holding the cloud types of the row, indexed by y position
+	*/
+	public void setRow(int t, int x, int y0, int y1, int[] types) {
+		int off = rowOffset(t, x);
+		int y = y0;
+		while(y < y1 && (y & 3) != 0) {
+			set(t, x, y, types[y]);
+			y++;
+		}
+		for(; y+4 <= y1; y += 4) {
+			data[off + (y >> 2)] = (byte)(types[y] | (types[y+1] << 2) | (types[y+2] << 4) | (types[y+3] << 6));
+		}
+		for(; y < y1; y++) {
+			set(t, x, y, types[y]);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the float32 mode of FloatKernel against the double precision path on one dataset
+ *
+ *<p>
+ *The grid is classified in double precision by WriteClouds, then narrowed to a FloatGrid and classified again by FloatKernel. The report counts the gridpoints whose cloud type flips, broken down by the double and float types, and gives the error of the prevailing wind, the largest change made to an input value by narrowing it, the memory taken by each grid and the run time of each path. A dataset is safe to run in float32 mode when no type flips and the text output, with the wind rounded to six decimal places, is the same.
+ *</p>
+ *<p>
+ *Can be run from the command line: java PrecisionReport [input data file] [radius]
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class PrecisionReport {
+
+	static final String[] TYPES = {"cumulus", "striated", "amorphous"};
+
+	long cells; // gridpoints compared
+	long[][] flips = new long[3][3]; // gridpoints of each double type (first index) classified as each float type (second index)
+	double[] doubleWind = new double[2], floatWind = new double[2]; // prevailing wind of each path
+	double inputError; // largest absolute change made to an input value by narrowing it
+	long doubleBytes, floatBytes; // memory taken by the value arrays of each grid
+	float doubleMs, floatMs; // classification time of each path
+
+	/**
+	* Classifies the first time slices of a grid in double and in float precision and compares the results
+	*
+	*@param grid Grid holding the double precision values
+	*@param slices Number of time slices to compare
+	*@param radius Neighbourhood radius, 1 for the 3x3 neighbourhood
+	*@param pool Pool used to classify in parallel
+	*@return PrecisionReport holding the differences
+	*/
+	public static PrecisionReport compare(CloudGrid grid, int slices, int radius, ForkJoinPool pool) {
+		PrecisionReport report = new PrecisionReport();
+		int dimx = grid.dimx, dimy = grid.dimy;
+		report.cells = (long)slices*dimx*dimy;
+
+		PackedClassification exact = new PackedClassification(slices, dimx, dimy);
+		WindSums sums = new WindSums(grid);
+		double[] total = null;
+		for(int run = 0; run < 2; run++) { // the second run is timed, once the kernels are compiled
+			long start = System.nanoTime();
+			pool.invoke(new WriteClouds(exact, grid, 0, slices*dimx*dimy, WriteClouds.SEQUENTIAL_CUTOFF, false, sums, radius));
+			total = sums.total(slices);
+			report.doubleMs = (System.nanoTime() - start)/1e6f;
+		}
+
+		FloatGrid narrow = FloatGrid.of(grid);
+		PackedClassification rounded = new PackedClassification(slices, dimx, dimy);
+		double[] floatTotal = null;
+		for(int run = 0; run < 2; run++) {
+			long start = System.nanoTime();
+			floatTotal = FloatKernel.classify(narrow, rounded, slices, WriteClouds.SEQUENTIAL_CUTOFF, radius, pool);
+			report.floatMs = (System.nanoTime() - start)/1e6f;
+		}
+
+		for(int i = 0; i < 2; i++) {
+			report.doubleWind[i] = total[i]/report.cells;
+			report.floatWind[i] = floatTotal[i]/report.cells;
+		}
+		for(int pos = 0; pos < slices*dimx*dimy; pos++) {
+			report.inputError = Math.max(report.inputError, Math.abs(narrow.windx[pos] - grid.windx[pos]));
+			report.inputError = Math.max(report.inputError, Math.abs(narrow.windy[pos] - grid.windy[pos]));
+			report.inputError = Math.max(report.inputError, Math.abs(narrow.convection[pos] - grid.convection[pos]));
+		}
+		report.doubleBytes = 3*8L*grid.size();
+		report.floatBytes = 3*4L*narrow.size();
+
+		int[] a = new int[dimy], b = new int[dimy];
+		for(int t = 0; t < slices; t++) {
+			for(int x = 0; x < dimx; x++) {
+				exact.getRow(t, x, a);
+				rounded.getRow(t, x, b);
+				for(int y = 0; y < dimy; y++) {
+					report.flips[a[y]][b[y]]++;
+				}
+			}
+		}
+		return report;
+	}
+
+	/**
+	* Counts the gridpoints whose cloud type differs between the two paths
+	*
+	*@return Long value representing the number of flipped classifications
+	*/
+	public long flipped() {
+		long flipped = 0;
+		for(int i = 0; i < 3; i++) {
+			for(int j = 0; j < 3; j++) {
+				flipped += (i == j) ? 0 : flips[i][j];
+			}
+		}
+		return flipped;
+	}
+
+	/**
+	* Finds the largest absolute error of the prevailing wind components
+	*
+	*@return Double value representing the wind error
+	*/
+	public double windError() {
+		return Math.max(Math.abs(floatWind[0]-doubleWind[0]), Math.abs(floatWind[1]-doubleWind[1]));
+	}
+
+	/**
+	* Checks whether float32 mode gives the same text output as the double precision path for this dataset
+	*
+	*@return Boolean value indicating whether no type flips and the rounded wind is the same
+	*/
+	public boolean safe() {
+		return flipped() == 0 && String.format("%f %f", doubleWind[0], doubleWind[1]).equals(String.format("%f %f", floatWind[0], floatWind[1]));
+	}
+
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("Gridpoints compared: %d\n", cells));
+		out.append(String.format("Classification flips: %d (%.6f%%)\n", flipped(), 100.0*flipped()/cells));
+		for(int i = 0; i < 3; i++) {
+			for(int j = 0; j < 3; j++) {
+				if(i != j && flips[i][j] > 0) {
+					out.append(String.format("  %s -> %s: %d\n", TYPES[i], TYPES[j], flips[i][j]));
+				}
+			}
+		}
+		out.append(String.format("Wind double: %.12f %.12f\n", doubleWind[0], doubleWind[1]));
+		out.append(String.format("Wind float:  %.12f %.12f\n", floatWind[0], floatWind[1]));
+		out.append(String.format("Wind error: %.3e\n", windError()));
+		out.append(String.format("Largest input rounding: %.3e\n", inputError));
+		out.append(String.format("Grid memory: %d bytes double, %d bytes float\n", doubleBytes, floatBytes));
+		out.append(String.format("Classification: %.1f ms double, %.1f ms float\n", doubleMs, floatMs));
+		out.append("Float32 output identical: "+(safe() ? "yes" : "no")+"\n");
+		return out.toString();
+	}
+
+	/**
+	* Reads an input data file and prints the report comparing its float32 and double precision results
+	*
+	*@param args The first argument args[0] is the input data file. The optional second argument args[1] is the neighbourhood radius.
+	*/
+	public static void main(String[] args) {
+		if(args.length < 1 || args.length > 2) {
+			System.out.println("Usage: java PrecisionReport [input data file] [radius]");
+			return;
+		}
+		int radius = 1;
+		if(args.length == 2) {
+			radius = args[1].matches("\\d+") ? Integer.parseInt(args[1]) : 0;
+		}
+		if(radius < 1) {
+			System.out.println("Radius must be a positive integer");
+			return;
+		}
+		CloudData cd = new CloudData();
+		cd.readData(args[0]);
+		if(cd.grid == null) {
+			return;
+		}
+		System.out.print(compare(cd.grid, cd.dimt, radius, cd.pool));
+	}
+}
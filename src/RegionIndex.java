@@ -0,0 +1,307 @@
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Summed-area index answering the average wind and cloud type counts of any box of the grid in constant time
+ *
+ *<p>
+ *For every corner (t, x, y) the index holds the sums of the x wind, the y wind and the number of gridpoints of cloud types 1 and 2 over the box [0, t) x [0, x) x [0, y). The sums over any box then follow from the values at its eight corners by inclusion and exclusion, however large the box. The count of type 0 is the rest of the gridpoints. The index is built once the grid has been classified, in two parallel passes: prefix sums over x and y within each time slice, then running sums over t at each (x, y).
+ *</p>
+ *<p>
+ *Box bounds are half-open, from the first position to the position after the last, as are the ranges of the thread classes. Wind sums of small boxes are differences of large totals, so on big grids their averages are accurate to around 1e-12 of the total rather than to the last bit.
+ *</p>
+ *<p>
+ *Can be run from the command line to answer a batch of queries: java RegionIndex [input data file] [query file]. Each line of the query file holds a box t0 t1 x0 x1 y0 y1, or a single time value t for the whole slice. Queries are read from standard input if no query file is given. Each answer is printed on one line as the box, its number of gridpoints, its average x and y wind, and its counts of cloud types 0, 1 and 2.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class RegionIndex {
+
+	static final int SEQUENTIAL_CUTOFF = 1 << 16; // corners summed sequentially by a leaf task
+
+	int dimt, dimx, dimy; // data dimensions
+	int planeSize; // corners per time value, (dimx+1)*(dimy+1)
+	double[] sumx, sumy; // wind sums over the box from the origin to each corner
+	int[] count1, count2; // gridpoints of cloud types 1 and 2 over the box from the origin to each corner
+
+	/**
+	 * Averages and counts over a box of the grid
+	 */
+	public static class Region {
+		long cells; // gridpoints in the box
+		double windx, windy; // average wind over the box
+		long[] counts = new long[3]; // gridpoints of each cloud type
+
+		public String toString() {
+			return String.format("%d %f %f %d %d %d", cells, windx, windy, counts[0], counts[1], counts[2]);
+		}
+	}
+
+	/**
+	*Creates an empty index with one corner more than the grid in each direction
+	*
+	*@param dimt Number of time slices
+	*@param dimx Number of gridpoints in the x direction
+	*@param dimy Number of gridpoints in the y direction
+	*@throws IllegalArgumentException If there are too many corners to hold in an array
+	*/
+	RegionIndex(int dimt, int dimx, int dimy) {
+		this.dimt = dimt; this.dimx = dimx; this.dimy = dimy;
+		long size = (dimt+1L)*(dimx+1L)*(dimy+1L);
+		if(size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Grid of "+dimt+"x"+dimx+"x"+dimy+" needs "+size+" index corners, more than an array can hold");
+		}
+		planeSize = (dimx+1)*(dimy+1);
+		sumx = new double[(int)size];
+		sumy = new double[(int)size];
+		count1 = new int[(int)size];
+		count2 = new int[(int)size];
+	}
+
+	/**
+	* Builds the index of a classified grid using parallelization
+	*
+	*@param grid Grid holding the wind values
+	*@param classification Packed classification of cloud types found for the grid
+	*@param slices Number of time slices classified
+	*@param pool Pool used to sum the slices in parallel
+	*@return RegionIndex over the first slices of the grid
+	*@throws IllegalArgumentException If the grid is too large to index
+	*/
+	public static RegionIndex build(CloudGrid grid, PackedClassification classification, int slices, ForkJoinPool pool) {
+		RegionIndex index = new RegionIndex(slices, grid.dimx, grid.dimy);
+		pool.invoke(index.new SliceSums(grid, classification, 0, slices));
+		pool.invoke(index.new TimeSums(0, index.planeSize));
+		return index;
+	}
+
+	/**
+	* Computes the position of a corner in the index arrays
+	*/
+	int corner(int t, int x, int y) {
+		return t*planeSize + x*(dimy+1) + y;
+	}
+
+	/**
+	 * Threaded class to compute the prefix sums over x and y within a range of time slices, using parallelization
+	 */
+	class SliceSums extends RecursiveAction {
+		CloudGrid grid;
+		PackedClassification classification;
+		int lo, hi;
+
+		SliceSums(CloudGrid grid, PackedClassification classification, int lo, int hi) {
+			this.grid = grid; this.classification = classification; this.lo = lo; this.hi = hi;
+		}
+
+		protected void compute() {
+			if(hi-lo == 1 || (long)(hi-lo)*planeSize < SEQUENTIAL_CUTOFF) {
+				int[] types = new int[dimy];
+				for(int t = lo; t < hi; t++) {
+					sumSlice(t, types);
+				}
+			}
+			else {
+				SliceSums left = new SliceSums(grid, classification, lo, (hi+lo)/2);
+				SliceSums right = new SliceSums(grid, classification, (hi+lo)/2, hi);
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+
+		/**
+		* Fills the corners of time value t+1 with the sums over slice t alone
+		*/
+		void sumSlice(int t, int[] types) {
+			for(int x = 0; x < dimx; x++) {
+				classification.getRow(t, x, types);
+				int pos = (t*dimx + x)*dimy;
+				int above = corner(t+1, x, 1), at = corner(t+1, x+1, 1);
+				double rowx = 0, rowy = 0;
+				int row1 = 0, row2 = 0;
+				for(int y = 0; y < dimy; y++) {
+					rowx += grid.windx[pos+y];
+					rowy += grid.windy[pos+y];
+					row1 += (types[y] == 1) ? 1 : 0;
+					row2 += (types[y] == 2) ? 1 : 0;
+					sumx[at+y] = sumx[above+y] + rowx;
+					sumy[at+y] = sumy[above+y] + rowy;
+					count1[at+y] = count1[above+y] + row1;
+					count2[at+y] = count2[above+y] + row2;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Threaded class to add the sums of earlier time slices to a range of (x, y) corners, using parallelization
+	 */
+	class TimeSums extends RecursiveAction {
+		int lo, hi;
+
+		TimeSums(int lo, int hi) {
+			this.lo = lo; this.hi = hi;
+		}
+
+		protected void compute() {
+			if((long)(hi-lo)*dimt < SEQUENTIAL_CUTOFF || hi-lo == 1) {
+				for(int t = 2; t <= dimt; t++) {
+					int prev = (t-1)*planeSize, cur = t*planeSize;
+					for(int i = lo; i < hi; i++) {
+						sumx[cur+i] += sumx[prev+i];
+						sumy[cur+i] += sumy[prev+i];
+						count1[cur+i] += count1[prev+i];
+						count2[cur+i] += count2[prev+i];
+					}
+				}
+			}
+			else {
+				TimeSums left = new TimeSums(lo, (hi+lo)/2);
+				TimeSums right = new TimeSums((hi+lo)/2, hi);
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+	}
+
+	/**
+	* Finds the average wind and cloud type counts over a box of the grid in constant time
+	*
+	*@param t0 First time value of the box
+	*@param t1 Time value after the last one of the box
+	*@param x0 First x position of the box
+	*@param x1 x position after the last one of the box
+	*@param y0 First y position of the box
+	*@param y1 y position after the last one of the box
+	*@return Region holding the averages and counts, with averages of NaN for an empty box
+	*@throws IllegalArgumentException If the box does not lie within the grid
+	*/
+	public Region query(int t0, int t1, int x0, int x1, int y0, int y1) {
+		if(t0 < 0 || t0 > t1 || t1 > dimt || x0 < 0 || x0 > x1 || x1 > dimx || y0 < 0 || y0 > y1 || y1 > dimy) {
+			throw new IllegalArgumentException("Box outside the grid");
+		}
+		int[] c = {
+			corner(t1, x1, y1), corner(t1, x1, y0), corner(t1, x0, y1), corner(t1, x0, y0),
+			corner(t0, x1, y1), corner(t0, x1, y0), corner(t0, x0, y1), corner(t0, x0, y0)
+		};
+		Region region = new Region();
+		region.cells = (long)(t1-t0)*(x1-x0)*(y1-y0);
+		double wx = 0, wy = 0;
+		long n1 = 0, n2 = 0;
+		for(int i = 0; i < 8; i++) {
+			int sign = (Integer.bitCount(i) % 2 == 0) ? 1 : -1; // corners with an odd number of lower bounds are subtracted
+			wx += sign*sumx[c[i]];
+			wy += sign*sumy[c[i]];
+			n1 += sign*count1[c[i]];
+			n2 += sign*count2[c[i]];
+		}
+		region.windx = wx/region.cells;
+		region.windy = wy/region.cells;
+		region.counts[1] = n1;
+		region.counts[2] = n2;
+		region.counts[0] = region.cells - n1 - n2;
+		return region;
+	}
+
+	/**
+	* Finds the average wind and cloud type counts over a whole time slice in constant time
+	*
+	*@param t Time value of the slice
+	*@return Region holding the averages and counts
+	*/
+	public Region timestep(int t) {
+		return query(t, t+1, 0, dimx, 0, dimy);
+	}
+
+	/**
+	* Answers one query line
+	*
+	*@param line Either t0 t1 x0 x1 y0 y1, or t
+	*@return String holding the box followed by its averages and counts
+	*@throws IllegalArgumentException If the line is not a valid query
+	*/
+	String answer(String line) {
+		String[] fields = line.trim().split("\\s+");
+		int[] box = new int[6];
+		try {
+			if(fields.length == 1) {
+				box[0] = Integer.parseInt(fields[0]);
+				box[1] = box[0]+1;
+				box[3] = dimx;
+				box[5] = dimy;
+			}
+			else if(fields.length == 6) {
+				for(int i = 0; i < 6; i++) {
+					box[i] = Integer.parseInt(fields[i]);
+				}
+			}
+			else {
+				throw new IllegalArgumentException("Expected t or t0 t1 x0 x1 y0 y1");
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number in query");
+		}
+		Region region = query(box[0], box[1], box[2], box[3], box[4], box[5]);
+		return box[0]+" "+box[1]+" "+box[2]+" "+box[3]+" "+box[4]+" "+box[5]+" "+region;
+	}
+
+	/**
+	* Classifies an input data file, builds its index and answers a batch of queries
+	*
+	*@param args The first argument args[0] is the input data file. The optional second argument args[1] is the query file, otherwise queries are read from standard input.
+	*/
+	public static void main(String[] args) {
+		if(args.length < 1 || args.length > 2) {
+			System.out.println("Usage: java RegionIndex [input data file] [query file]");
+			return;
+		}
+		CloudData cd = new CloudData();
+		cd.readData(args[0]);
+		if(cd.grid == null) {
+			return;
+		}
+		cd.scaledt = cd.dimt;
+		cd.analyseData(0);
+		RegionIndex index;
+		try {
+			index = build(cd.grid, cd.classification, cd.dimt, cd.pool);
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		System.out.println("Indexed "+cd.dim()+" gridpoints");
+
+		try (InputStream in = (args.length == 2) ? new FileInputStream(args[1]) : System.in;
+			BufferedReader queries = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while((line = queries.readLine()) != null) {
+				if(line.trim().isEmpty() || line.trim().startsWith("#")) {
+					continue;
+				}
+				try {
+					System.out.println(index.answer(line));
+				}
+				catch (IllegalArgumentException e) {
+					System.out.println("error "+line.trim()+": "+e.getMessage());
+				}
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Unable to read queries");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reads and writes classification results in a compact binary format holding the packed time slices
+ *
+ *<p>
+ *The file starts with a fixed size little-endian header holding a magic number, the format version, the dimensions dimt, dimx and dimy, and the average x and y wind as doubles. It is followed by the bytes of PackedClassification, four gridpoints to a byte, so a result takes an eighth of the space of the text output and is written and read without formatting or parsing. The wind is stored exactly, while the text output rounds it to six decimal places.
+ *</p>
+ *<p>
+ *Can be run from the command line to convert between the formats: java ResultFile [input result file] [output result file]. A text output file is converted to the binary format, and a binary result file back to the text format, byte-for-byte the same as the text output of the run.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class ResultFile {
+
+	static final int MAGIC = 0x52444c43; // "CLDR" when read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 40; // keeps the wind values 8-byte aligned
+
+	/**
+	* Checks whether the given file starts with the binary result header
+	*
+	*@param fileName Name of the file to check
+	*@return Boolean value indicating whether the file is in the binary result format
+	*/
+	public static boolean isResultFile(String fileName) {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			if(file.length() < HEADER_SIZE) {
+				return false;
+			}
+			return Integer.reverseBytes(file.readInt()) == MAGIC;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	* Writes the prevailing wind and the first time slices of a classification to a file in the binary result format
+	*
+	*@param fileName Name of the file to write to
+	*@param classification Packed classification of cloud types to be written
+	*@param dimt Number of time slices to write
+	*@param wind Vector containing average wind values
+	*@throws IOException If the file cannot be written
+	*/
+	public static void write(String fileName, PackedClassification classification, int dimt, Vector<Double> wind) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+			FileChannel channel = file.getChannel()) {
+			int bytes = dimt*classification.dimx*classification.rowBytes;
+			file.setLength(HEADER_SIZE + (long)bytes);
+			writeFully(channel, header(dimt, classification.dimx, classification.dimy, wind), 0);
+			writeFully(channel, ByteBuffer.wrap(classification.data, 0, bytes), HEADER_SIZE);
+		}
+	}
+
+	/**
+	* Builds the header of a result file
+	*
+	*@param dimt Number of time slices in the file
+	*@param dimx Number of gridpoints in the x direction
+	*@param dimy Number of gridpoints in the y direction
+	*@param wind Vector containing average wind values
+	*@return ByteBuffer holding the header, ready to be written
+	*/
+	static ByteBuffer header(int dimt, int dimx, int dimy, Vector<Double> wind) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(dimt).putInt(dimx).putInt(dimy).putInt(0);
+		header.putDouble(wind.get(0)).putDouble(wind.get(1));
+		header.flip();
+		return header;
+	}
+
+	/**
+	* Reads a file in the binary result format
+	*
+	*@param fileName Name of the file to read
+	*@param wind Vector that the average x and y wind values are added to
+	*@return PackedClassification holding the time slices stored in the file
+	*@throws IOException If the file cannot be read or is not a valid result file
+	*/
+	public static PackedClassification read(String fileName, Vector<Double> wind) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			FileChannel channel = file.getChannel()) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0, fileName);
+			if(header.getInt(0) != MAGIC) {
+				throw new IOException("Not a result file: "+fileName);
+			}
+			if(header.getInt(4) != VERSION) {
+				throw new IOException("Unsupported result file version "+header.getInt(4));
+			}
+			PackedClassification classification = new PackedClassification(header.getInt(8), header.getInt(12), header.getInt(16));
+			wind.add(header.getDouble(24));
+			wind.add(header.getDouble(32));
+			readFully(channel, ByteBuffer.wrap(classification.data), HEADER_SIZE, fileName);
+			return classification;
+		}
+	}
+
+	/**
+	* Writes the whole buffer at the given position of the file
+	*/
+	static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	* Fills the buffer from the given position of the file, failing if the file ends first
+	*/
+	static void readFully(FileChannel channel, ByteBuffer buffer, long position, String fileName) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if(read < 0) {
+				throw new IOException("Truncated result file: "+fileName);
+			}
+			position += read;
+		}
+	}
+
+	/**
+	* Converts a text output file into the binary result format, or a binary result file into the text output format
+	*
+	*@param args The first argument args[0] is the name of the result file to read from. The second argument args[1] is the name of the result file to write to.
+	*/
+	public static void main(String[] args) {
+		if(args.length != 2) {
+			System.out.println("Usage: java ResultFile [input result file] [output result file]");
+			return;
+		}
+		CloudData cd = new CloudData();
+		cd.readCorrectData(args[0]);
+		if(cd.checkClassification == null) {
+			return;
+		}
+		try {
+			if(isResultFile(args[0])) {
+				CloudWriter.write(args[1], cd.checkClassification, cd.dt, cd.checkWind, ForkJoinPool.commonPool());
+			}
+			else {
+				write(args[1], cd.checkClassification, cd.dt, cd.checkWind);
+			}
+			System.out.println("Wrote "+((long)cd.dt*cd.dx*cd.dy)+" classifications to "+args[1]);
+		}
+		catch (IOException e) {
+			System.out.println("Unable to write result file "+args[1]);
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects runtime metrics of a run, for printing at the end of the run or reading through JMX while it runs
+ *
+ *<p>
+ *The thread classes count forked tasks and leaf sizes in LongAdder counters, which worker threads can update without contending with each other. The phases of a run (load, classify, verify, write and the sequential baseline) are timed by the main thread, recording wall time, process CPU time and the number of tasks stolen by the pool's workers during the phase. The counters are cheap enough to be left on in every run.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class RunMetrics {
+
+	static final int LOAD = 0, CLASSIFY = 1, VERIFY = 2, WRITE = 3, SEQUENTIAL = 4;
+	static final String[] PHASES = {"load", "classify", "verify", "write", "sequential"};
+	static final int BUCKETS = 32; // leaf sizes are counted in power of two buckets
+
+	static final LongAdder tasksForked = new LongAdder();
+	static final LongAdder leafTasks = new LongAdder();
+	static final LongAdder leafCells = new LongAdder();
+	static final LongAdder[] leafSizes = adders(BUCKETS); // bucket b counts leaves of 2^b to 2^(b+1)-1 gridpoints
+	static final LongAdder[] wallNanos = adders(PHASES.length);
+	static final LongAdder[] cpuNanos = adders(PHASES.length);
+	static final LongAdder[] steals = adders(PHASES.length);
+	static final LongAdder[] runs = adders(PHASES.length);
+	static final LongAdder cacheHits = new LongAdder(); // entries of DataCache found
+	static final LongAdder cacheMisses = new LongAdder(); // entries of DataCache looked up but not found
+	static final LongAdder cacheEvictions = new LongAdder(); // entries of DataCache deleted to keep within its size cap
+	static ForkJoinPool pool = ForkJoinPool.commonPool(); // pool whose statistics are reported
+
+	static LongAdder[] adders(int n) {
+		LongAdder[] a = new LongAdder[n];
+		for(int i = 0; i < n; i++) {
+			a[i] = new LongAdder();
+		}
+		return a;
+	}
+
+	/**
+	* Sets the pool whose steal and queue statistics are reported
+	*
+	*@param p Pool running the thread classes
+	*/
+	public static void watch(ForkJoinPool p) {
+		pool = p;
+	}
+
+	/**
+	* Counts a task forked by a thread class
+	*/
+	public static void forked() {
+		tasksForked.increment();
+	}
+
+	/**
+	* Counts a leaf task and the number of gridpoints it processed
+	*
+	*@param cells Number of gridpoints processed sequentially by the leaf
+	*/
+	public static void leaf(long cells) {
+		leafTasks.increment();
+		leafCells.add(cells);
+		leafSizes[63 - Long.numberOfLeadingZeros(Math.max(1, Math.min(cells, (1L << BUCKETS) - 1)))].increment();
+	}
+
+	/**
+	* Starts timing a phase
+	*
+	*@param phase One of LOAD, CLASSIFY, VERIFY, WRITE or SEQUENTIAL
+	*@return Timer to stop once the phase has finished
+	*/
+	public static Timer start(int phase) {
+		return new Timer(phase);
+	}
+
+	/**
+	* Clears every counter, used between benchmarking runs
+	*/
+	public static void reset() {
+		tasksForked.reset(); leafTasks.reset(); leafCells.reset();
+		cacheHits.reset(); cacheMisses.reset(); cacheEvictions.reset();
+		for(int i = 0; i < BUCKETS; i++) {
+			leafSizes[i].reset();
+		}
+		for(int p = 0; p < PHASES.length; p++) {
+			wallNanos[p].reset(); cpuNanos[p].reset(); steals[p].reset(); runs[p].reset();
+		}
+	}
+
+	/**
+	* Returns the CPU time used so far by every thread of the process, or 0 if the platform does not report it
+	*/
+	static long processCpuNanos() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if(os instanceof com.sun.management.OperatingSystemMXBean) {
+			return Math.max(0, ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime());
+		}
+		return 0;
+	}
+
+	/**
+	* Formats every metric as a JSON object
+	*
+	*@return String holding the JSON text
+	*/
+	public static String toJson() {
+		StringBuilder sb = new StringBuilder("{\n  \"phases\": {");
+		for(int p = 0; p < PHASES.length; p++) {
+			sb.append(p == 0 ? "\n" : ",\n");
+			sb.append("    \"").append(PHASES[p]).append("\": {\"runs\": ").append(runs[p].sum())
+				.append(", \"wall_ms\": ").append(wallNanos[p].sum()/1e6)
+				.append(", \"cpu_ms\": ").append(cpuNanos[p].sum()/1e6)
+				.append(", \"steals\": ").append(steals[p].sum()).append("}");
+		}
+		sb.append("\n  },\n  \"tasks_forked\": ").append(tasksForked.sum());
+		sb.append(",\n  \"leaf_tasks\": ").append(leafTasks.sum());
+		sb.append(",\n  \"leaf_cells\": ").append(leafCells.sum());
+		sb.append(",\n  \"leaf_size_buckets\": {");
+		String sep = "";
+		for(int b = 0; b < BUCKETS; b++) {
+			long count = leafSizes[b].sum();
+			if(count > 0) {
+				sb.append(sep).append("\"").append(1L << b).append("\": ").append(count);
+				sep = ", ";
+			}
+		}
+		sb.append("},\n  \"cache\": {\"hits\": ").append(cacheHits.sum())
+			.append(", \"misses\": ").append(cacheMisses.sum())
+			.append(", \"evictions\": ").append(cacheEvictions.sum());
+		sb.append("},\n  \"pool\": {\"parallelism\": ").append(pool.getParallelism())
+			.append(", \"size\": ").append(pool.getPoolSize())
+			.append(", \"active\": ").append(pool.getActiveThreadCount())
+			.append(", \"steals\": ").append(pool.getStealCount())
+			.append(", \"queued_tasks\": ").append(pool.getQueuedTaskCount())
+			.append(", \"queued_submissions\": ").append(pool.getQueuedSubmissionCount()).append("}\n}\n");
+		return sb.toString();
+	}
+
+	/**
+	* Formats every metric in the Prometheus text exposition format
+	*
+	*@return String holding the metric lines
+	*/
+	public static String toPrometheus() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# TYPE cloud_phase_runs_total counter\n");
+		for(int p = 0; p < PHASES.length; p++) {
+			sb.append("cloud_phase_runs_total{phase=\"").append(PHASES[p]).append("\"} ").append(runs[p].sum()).append('\n');
+		}
+		sb.append("# TYPE cloud_phase_wall_seconds_total counter\n");
+		for(int p = 0; p < PHASES.length; p++) {
+			sb.append("cloud_phase_wall_seconds_total{phase=\"").append(PHASES[p]).append("\"} ").append(wallNanos[p].sum()/1e9).append('\n');
+		}
+		sb.append("# TYPE cloud_phase_cpu_seconds_total counter\n");
+		for(int p = 0; p < PHASES.length; p++) {
+			sb.append("cloud_phase_cpu_seconds_total{phase=\"").append(PHASES[p]).append("\"} ").append(cpuNanos[p].sum()/1e9).append('\n');
+		}
+		sb.append("# TYPE cloud_phase_steals_total counter\n");
+		for(int p = 0; p < PHASES.length; p++) {
+			sb.append("cloud_phase_steals_total{phase=\"").append(PHASES[p]).append("\"} ").append(steals[p].sum()).append('\n');
+		}
+		sb.append("# TYPE cloud_tasks_forked_total counter\n");
+		sb.append("cloud_tasks_forked_total ").append(tasksForked.sum()).append('\n');
+		sb.append("# TYPE cloud_leaf_cells histogram\n");
+		long cumulative = 0;
+		for(int b = 0; b < BUCKETS; b++) {
+			cumulative += leafSizes[b].sum();
+			sb.append("cloud_leaf_cells_bucket{le=\"").append((1L << (b+1)) - 1).append("\"} ").append(cumulative).append('\n');
+		}
+		sb.append("cloud_leaf_cells_bucket{le=\"+Inf\"} ").append(leafTasks.sum()).append('\n');
+		sb.append("cloud_leaf_cells_sum ").append(leafCells.sum()).append('\n');
+		sb.append("cloud_leaf_cells_count ").append(leafTasks.sum()).append('\n');
+		sb.append("# TYPE cloud_cache_hits_total counter\n");
+		sb.append("cloud_cache_hits_total ").append(cacheHits.sum()).append('\n');
+		sb.append("# TYPE cloud_cache_misses_total counter\n");
+		sb.append("cloud_cache_misses_total ").append(cacheMisses.sum()).append('\n');
+		sb.append("# TYPE cloud_cache_evictions_total counter\n");
+		sb.append("cloud_cache_evictions_total ").append(cacheEvictions.sum()).append('\n');
+		sb.append("# TYPE cloud_pool_parallelism gauge\n");
+		sb.append("cloud_pool_parallelism ").append(pool.getParallelism()).append('\n');
+		sb.append("# TYPE cloud_pool_threads gauge\n");
+		sb.append("cloud_pool_threads ").append(pool.getPoolSize()).append('\n');
+		sb.append("# TYPE cloud_pool_steals_total counter\n");
+		sb.append("cloud_pool_steals_total ").append(pool.getStealCount()).append('\n');
+		sb.append("# TYPE cloud_pool_queued_tasks gauge\n");
+		sb.append("cloud_pool_queued_tasks ").append(pool.getQueuedTaskCount()).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	* Registers the metrics with the platform MBean server, so they can be watched with JConsole or another JMX client while the program runs
+	*/
+	public static void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName("CloudData:type=RunMetrics"));
+		}
+		catch (JMException e) {
+			System.out.println("Unable to register metrics MBean");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Times one run of a phase, adding the times to the phase totals when stopped
+	 */
+	public static class Timer {
+		final int phase;
+		final long wall, cpu, steal;
+
+		Timer(int phase) {
+			this.phase = phase;
+			steal = pool.getStealCount();
+			cpu = processCpuNanos();
+			wall = System.nanoTime();
+		}
+
+		/**
+		* Stops timing the phase
+		*
+		*@return Long value representing the wall time of the phase in nanoseconds
+		*/
+		public long stop() {
+			long elapsed = System.nanoTime() - wall;
+			wallNanos[phase].add(elapsed);
+			cpuNanos[phase].add(processCpuNanos() - cpu);
+			steals[phase].add(pool.getStealCount() - steal);
+			runs[phase].increment();
+			return elapsed;
+		}
+	}
+
+	/**
+	 * Attributes published through JMX
+	 */
+	public interface MetricsMXBean {
+		long getTasksForked();
+		long getLeafTasks();
+		long getLeafCells();
+		long getPoolSteals();
+		long getPoolQueuedTasks();
+		int getPoolActiveThreads();
+		double getClassifyWallMillis();
+		double getClassifyCpuMillis();
+		String getPrometheusText();
+	}
+
+	static class Metrics implements MetricsMXBean {
+		public long getTasksForked() { return tasksForked.sum(); }
+		public long getLeafTasks() { return leafTasks.sum(); }
+		public long getLeafCells() { return leafCells.sum(); }
+		public long getPoolSteals() { return pool.getStealCount(); }
+		public long getPoolQueuedTasks() { return pool.getQueuedTaskCount(); }
+		public int getPoolActiveThreads() { return pool.getActiveThreadCount(); }
+		public double getClassifyWallMillis() { return wallNanos[CLASSIFY].sum()/1e6; }
+		public double getClassifyCpuMillis() { return cpuNanos[CLASSIFY].sum()/1e6; }
+		public String getPrometheusText() { return toPrometheus(); }
+	}
+}
@@ -0,0 +1,263 @@
+
+/**
+ * Holds the file names and flags given on the command line
+ *
+ *<p>
+ *Arguments not starting with a dash are taken in order as the input data file, output data file and correct output data file. The remaining arguments are flags selecting the run mode.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class RunOptions {
+
+	String input; // input data file
+	String output; // output data file
+	String correct; // correct output data file, may be null in streaming, out-of-core and multi-process modes
+	boolean benchmark = false; // -t: run benchmarking tests
+	boolean stream = false; // -s: read, classify and write one time slice at a time
+	boolean pipeline = false; // -v: as -s, but reading, classifying and writing of consecutive slices overlap on virtual threads
+	boolean outOfCore = false; // -o: classify a binary grid file in windows of time slices mapped from disk, using OutOfCoreEngine
+	int processes = 0; // -p N: divide the time slices between N worker processes
+	boolean simd = false; // -k simd: classify using SimdKernel, -k scalar: use the scalar kernel
+	int cutoff = 0; // -c N: sequential cutoff of the thread classes, 0 for their default
+	boolean autoCutoff = false; // -c auto: calibrate the cutoff, or reuse one calibrated earlier on this machine
+	boolean tiled = false; // -d tiled: divide work into tiles using TiledClouds, -d linear: bisect linear ranges using WriteClouds
+	String metrics; // -m json|prometheus: print the run metrics in the given format at the end of the run
+	boolean jmx = false; // -j: publish the run metrics through JMX while running
+	boolean failFast = false; // -f: stop verifying the output at the first mismatch
+	int reportLimit = OutputVerifier.DEFAULT_LIMIT; // -n N: number of mismatching gridpoints to list
+	boolean binary = false; // -b: write the output in the binary result format of ResultFile
+	boolean float32 = false; // -e float: store and classify the values as 32-bit floats using FloatKernel, -e double: use doubles
+	String engine; // -g name[:threads]: classify using the ClassificationEngine of that name and parallelism, rather than the thread classes on the shared pool
+	int engineThreads = 0; // parallelism of the engine, 0 for the number of processors
+	boolean cache = false; // -a: reuse parsed input files and results stored in the on-disk cache of DataCache
+	int radius = 1; // -r N: average the wind over the (2N+1)x(2N+1) neighbourhood of each gridpoint
+	java.util.Set<String> given = new java.util.HashSet<String>(); // flags given, so that flags a mode would ignore can be rejected
+
+	/**
+	* Parses the command line arguments
+	*
+	*@param args Arguments given on the command line
+	*@return RunOptions holding the parsed values
+	*@throws IllegalArgumentException If an argument is not recognised or a required file name is missing
+	*/
+	public static RunOptions parse(String[] args) {
+		return parse(args, true);
+	}
+
+	/**
+	* Parses the arguments of a run, optionally without a correct output data file
+	*
+	*@param args Arguments given on the command line or in a service job
+	*@param needCorrect Whether a correct output data file must be given when not streaming
+	*@return RunOptions holding the parsed values
+	*@throws IllegalArgumentException If an argument is not recognised or a required file name is missing
+	*/
+	public static RunOptions parse(String[] args, boolean needCorrect) {
+		RunOptions opts = new RunOptions();
+		int files = 0;
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(arg.startsWith("-")) {
+				opts.given.add(arg);
+			}
+			if(arg.equals("-t")) {
+				opts.benchmark = true;
+			}
+			else if(arg.equals("-s")) {
+				opts.stream = true;
+			}
+			else if(arg.equals("-v")) {
+				opts.pipeline = true;
+			}
+			else if(arg.equals("-k")) {
+				String kernel = value(args, ++i, arg);
+				if(!kernel.equals("scalar") && !kernel.equals("simd")) {
+					throw new IllegalArgumentException("Unknown kernel "+kernel);
+				}
+				opts.simd = kernel.equals("simd");
+			}
+			else if(arg.equals("-d")) {
+				String decomposition = value(args, ++i, arg);
+				if(!decomposition.equals("linear") && !decomposition.equals("tiled")) {
+					throw new IllegalArgumentException("Unknown decomposition "+decomposition);
+				}
+				opts.tiled = decomposition.equals("tiled");
+			}
+			else if(arg.equals("-c")) {
+				String cutoff = value(args, ++i, arg);
+				if(cutoff.equals("auto")) {
+					opts.autoCutoff = true;
+				}
+				else {
+					try {
+						opts.cutoff = Integer.parseInt(cutoff);
+					}
+					catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid cutoff "+cutoff);
+					}
+					if(opts.cutoff < 1) {
+						throw new IllegalArgumentException("Cutoff must be positive");
+					}
+				}
+			}
+			else if(arg.equals("-m")) {
+				opts.metrics = value(args, ++i, arg);
+				if(!opts.metrics.equals("json") && !opts.metrics.equals("prometheus")) {
+					throw new IllegalArgumentException("Unknown metrics format "+opts.metrics);
+				}
+			}
+			else if(arg.equals("-e")) {
+				String precision = value(args, ++i, arg);
+				if(!precision.equals("float") && !precision.equals("double")) {
+					throw new IllegalArgumentException("Unknown precision "+precision);
+				}
+				opts.float32 = precision.equals("float");
+			}
+			else if(arg.equals("-g")) {
+				String[] engine = value(args, ++i, arg).split(":", 2);
+				if(!java.util.Arrays.asList(ClassificationEngine.NAMES).contains(engine[0])) {
+					throw new IllegalArgumentException("Unknown engine "+engine[0]);
+				}
+				opts.engine = engine[0];
+				if(engine.length == 2) {
+					try {
+						opts.engineThreads = Integer.parseInt(engine[1]);
+					}
+					catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid thread count "+engine[1]);
+					}
+					if(opts.engineThreads < 1) {
+						throw new IllegalArgumentException("Thread count must be positive");
+					}
+				}
+			}
+			else if(arg.equals("-a")) {
+				opts.cache = true;
+			}
+			else if(arg.equals("-o")) {
+				opts.outOfCore = true;
+			}
+			else if(arg.equals("-j")) {
+				opts.jmx = true;
+			}
+			else if(arg.equals("-p")) {
+				String processes = value(args, ++i, arg);
+				try {
+					opts.processes = Integer.parseInt(processes);
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid process count "+processes);
+				}
+				if(opts.processes < 1) {
+					throw new IllegalArgumentException("Process count must be positive");
+				}
+			}
+			else if(arg.equals("-r")) {
+				String radius = value(args, ++i, arg);
+				try {
+					opts.radius = Integer.parseInt(radius);
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid radius "+radius);
+				}
+				if(opts.radius < 1) {
+					throw new IllegalArgumentException("Radius must be positive");
+				}
+			}
+			else if(arg.equals("-b")) {
+				opts.binary = true;
+			}
+			else if(arg.equals("-f")) {
+				opts.failFast = true;
+			}
+			else if(arg.equals("-n")) {
+				String limit = value(args, ++i, arg);
+				try {
+					opts.reportLimit = Integer.parseInt(limit);
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid mismatch count "+limit);
+				}
+				if(opts.reportLimit < 0) {
+					throw new IllegalArgumentException("Mismatch count must not be negative");
+				}
+			}
+			else if(arg.startsWith("-")) {
+				throw new IllegalArgumentException("Unknown option "+arg);
+			}
+			else {
+				switch(files++) {
+					case 0: opts.input = arg; break;
+					case 1: opts.output = arg; break;
+					case 2: opts.correct = arg; break;
+					default: throw new IllegalArgumentException("Unexpected argument "+arg);
+				}
+			}
+		}
+		if(opts.output == null || (needCorrect && opts.correct == null && !opts.stream && !opts.pipeline && !opts.outOfCore && opts.processes == 0)) {
+			throw new IllegalArgumentException("Missing file name");
+		}
+		int modes = (opts.stream ? 1 : 0) + (opts.pipeline ? 1 : 0) + (opts.outOfCore ? 1 : 0) + ((opts.processes > 0) ? 1 : 0);
+		if(modes > 1) {
+			throw new IllegalArgumentException("Only one of -s, -v, -o and -p may be given");
+		}
+		if(opts.stream || opts.pipeline) {
+			opts.reject(opts.stream ? "-s" : "-v", "-t", "-d", "-b", "-f", "-n");
+		}
+		if(opts.outOfCore) {
+			opts.reject("-o", "-t", "-d", "-f", "-n");
+		}
+		if(opts.processes > 0) {
+			opts.reject("-p", "-t", "-d", "-b", "-f", "-n", "-j");
+		}
+		if(opts.float32 && (opts.stream || opts.pipeline || opts.outOfCore || opts.processes > 0)) {
+			throw new IllegalArgumentException("-e float is only supported in the standard mode");
+		}
+		if(opts.engine != null && (opts.float32 || opts.stream || opts.pipeline || opts.outOfCore || opts.processes > 0)) {
+			throw new IllegalArgumentException("-g is only supported in the standard mode, in double precision");
+		}
+		if(opts.cache && (opts.stream || opts.pipeline || opts.outOfCore || opts.processes > 0)) {
+			throw new IllegalArgumentException("-a is only supported in the standard mode");
+		}
+		return opts;
+	}
+
+	/**
+	* Fails if any of the given flags was given together with a mode that does not support them
+	*
+	*@param mode Flag selecting the mode
+	*@param flags Flags the mode does not support
+	*@throws IllegalArgumentException If one of the flags was given
+	*/
+	void reject(String mode, String... flags) {
+		for(String flag : flags) {
+			if(given.contains(flag)) {
+				throw new IllegalArgumentException(flag+" is not supported with "+mode);
+			}
+		}
+	}
+
+	/**
+	* Returns the value following an option, failing if there is none
+	*/
+	private static String value(String[] args, int i, String option) {
+		if(i >= args.length) {
+			throw new IllegalArgumentException("Missing value for "+option);
+		}
+		return args[i];
+	}
+
+	/**
+	* Returns the command line usage message
+	*
+	*@return String describing the accepted arguments
+	*/
+	public static String usage() {
+		return "Usage: java CloudData [input data file] [output data file] [correct output data file] [-t] [-k scalar|simd] [-d linear|tiled] [-c auto|cutoff] [-m json|prometheus] [-j] [-f] [-n count] [-b] [-r radius] [-e float|double] [-a] [-g forkjoin|stream|pool|virtual[:threads]]\n"
+			+ "       java CloudData [input data file] [output data file] -s|-v [-k scalar|simd] [-c auto|cutoff] [-r radius] [-m json|prometheus] [-j]\n"
+			+ "       java CloudData [binary grid file] [output data file] -o [-k scalar|simd] [-c auto|cutoff] [-b] [-r radius] [-m json|prometheus] [-j]\n"
+			+ "       java CloudData [input data file] [output data file] -p [processes] [-k scalar|simd] [-c auto|cutoff] [-r radius] [-m json|prometheus]";
+	}
+}
@@ -0,0 +1,176 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures strong and weak scaling of the parallel classification on generated grids, printing the results as CSV
+ *
+ *<p>
+ *Strong scaling classifies one grid of fixed size with 1, 2, 4 and so on up to the given number of threads. Weak scaling gives each thread the same amount of work, classifying a grid of p times the given number of time slices with p threads. Every parallelism level runs on its own ForkJoinPool, created for the level and shut down afterwards. As in CloudData benchmarking, each level is run 7 times and the last 5 runs are averaged.
+ *</p>
+ *<p>
+ *Each CSV line holds the study, the number of threads, the grid dimensions and size, the average run time in milliseconds, the speedup over one thread, the parallel efficiency and the gridpoints classified per second. For weak scaling the speedup is the scaled speedup, p times the one thread time over the p thread time.
+ *</p>
+ *<p>
+ *Usage: java ScalingStudy [strong|weak|both] [dimt] [dimx] [dimy] [max threads] [seed] [-k scalar|simd] [-d linear|tiled]
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class ScalingStudy {
+
+	static final String HEADER = "study,threads,dimt,dimx,dimy,cells,ms,speedup,efficiency,cells_per_s";
+
+	boolean simd = false; // classify using SimdKernel
+	boolean tiled = false; // divide work using TiledClouds
+	long seed = 1;
+
+	/**
+	* Lists the parallelism levels studied: powers of two up to the maximum, and the maximum itself
+	*
+	*@param max Largest number of threads
+	*@return List of thread counts in increasing order
+	*/
+	static List<Integer> levels(int max) {
+		List<Integer> levels = new ArrayList<Integer>();
+		for(int p = 1; p < max; p *= 2) {
+			levels.add(p);
+		}
+		levels.add(max);
+		return levels;
+	}
+
+	/**
+	* Classifies a grid on a new pool of the given parallelism, returning the average run time
+	*
+	*@param grid Grid to classify
+	*@param threads Parallelism of the pool
+	*@return Float value representing the average of the last 5 of 7 runs in milliseconds
+	*/
+	float time(CloudGrid grid, int threads) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			CloudData cd = new CloudData();
+			cd.grid = grid;
+			cd.dimt = grid.dimt; cd.dimx = grid.dimx; cd.dimy = grid.dimy;
+			cd.scaledt = grid.dimt;
+			cd.classification = new PackedClassification(grid.dimt, grid.dimx, grid.dimy);
+			cd.simd = simd;
+			cd.tiled = tiled;
+			cd.pool = pool;
+			float[] times = new float[7]; //run program 7 times but only average last 5
+			for(int i = 0; i < 7; i++) {
+				long start = System.nanoTime();
+				cd.analyseData(0);
+				times[i] = (System.nanoTime() - start)/1e6f;
+			}
+			return cd.findAvTime(times);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	* Formats one line of results
+	*/
+	static String line(String study, int threads, CloudGrid grid, float ms, double speedup) {
+		return String.format("%s,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.0f", study, threads, grid.dimt, grid.dimx, grid.dimy, grid.size(),
+			ms, speedup, speedup/threads, grid.size()/(ms/1e3));
+	}
+
+	/**
+	* Runs the strong scaling study, printing a CSV line per parallelism level
+	*
+	*@param dimt Number of timesteps of the grid
+	*@param dimx Number of gridpoints in the x direction
+	*@param dimy Number of gridpoints in the y direction
+	*@param max Largest number of threads
+	*/
+	public void strong(int dimt, int dimx, int dimy, int max) {
+		CloudGrid grid = GridGenerator.generate(dimt, dimx, dimy, seed, ForkJoinPool.commonPool());
+		time(grid, 1); // compile the kernels before the one thread level is measured
+		float one = 0;
+		for(int p : levels(max)) {
+			float ms = time(grid, p);
+			if(p == 1) {
+				one = ms;
+			}
+			System.out.println(line("strong", p, grid, ms, one/ms));
+		}
+	}
+
+	/**
+	* Runs the weak scaling study, printing a CSV line per parallelism level
+	*
+	*@param dimt Number of timesteps per thread
+	*@param dimx Number of gridpoints in the x direction
+	*@param dimy Number of gridpoints in the y direction
+	*@param max Largest number of threads
+	*/
+	public void weak(int dimt, int dimx, int dimy, int max) {
+		CloudGrid largest = GridGenerator.generate(dimt*max, dimx, dimy, seed, ForkJoinPool.commonPool());
+		time(largest.reshape(dimt, dimx, dimy), 1); // compile the kernels before the one thread level is measured
+		float one = 0;
+		for(int p : levels(max)) {
+			CloudGrid grid = largest.reshape(dimt*p, dimx, dimy); // the first p*dimt slices, generated the same at every level
+			float ms = time(grid, p);
+			if(p == 1) {
+				one = ms;
+			}
+			System.out.println(line("weak", p, grid, ms, p*one/ms));
+		}
+	}
+
+	/**
+	* Runs the studies given on the command line
+	*
+	*@param args Flags described in the class comment
+	*/
+	public static void main(String[] args) {
+		String usage = "Usage: java ScalingStudy [strong|weak|both] [dimt] [dimx] [dimy] [max threads] [seed] [-k scalar|simd] [-d linear|tiled]";
+		ScalingStudy study = new ScalingStudy();
+		List<String> values = new ArrayList<String>();
+		try {
+			for(int i = 0; i < args.length; i++) {
+				if(args[i].equals("-k")) {
+					study.simd = args[++i].equals("simd");
+				}
+				else if(args[i].equals("-d")) {
+					study.tiled = args[++i].equals("tiled");
+				}
+				else {
+					values.add(args[i]);
+				}
+			}
+			if(values.size() < 4 || values.size() > 6 || !values.get(0).matches("strong|weak|both")) {
+				throw new IllegalArgumentException();
+			}
+			int dimt = Integer.parseInt(values.get(1)), dimx = Integer.parseInt(values.get(2)), dimy = Integer.parseInt(values.get(3));
+			int max = (values.size() > 4) ? Integer.parseInt(values.get(4)) : Runtime.getRuntime().availableProcessors();
+			if(values.size() > 5) {
+				study.seed = Long.parseLong(values.get(5));
+			}
+			long largest = (long)dimt*dimx*dimy*(values.get(0).equals("strong") ? 1 : max); // gridpoints of the largest grid generated
+			if(dimt < 1 || dimx < 1 || dimy < 1 || max < 1 || largest > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException();
+			}
+			if(study.simd && !CloudKernel.simdAvailable()) {
+				System.err.println("SIMD kernel unavailable, run with --add-modules jdk.incubator.vector. Using scalar kernel");
+				study.simd = false;
+			}
+			System.out.println(HEADER);
+			if(!values.get(0).equals("weak")) {
+				study.strong(dimt, dimx, dimy, max);
+			}
+			if(!values.get(0).equals("strong")) {
+				study.weak(dimt, dimx, dimy, max);
+			}
+		}
+		catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.out.println(usage);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Classifies an input data file using several local worker processes, each handling a range of time slices
+ *
+ *<p>
+ *Cloud classification never looks across timesteps, so the time slices can be divided between processes with no data shared between them. The coordinator gives each worker process a contiguous range of slices. A worker reads only its own slices, classifies them one at a time as SliceStreamer does, and writes a part file holding the wind sum of each of its slices followed by their formatted output lines. The coordinator then adds the slice sums with the pairwise tree of WindSums, so the prevailing wind has the same bits as a single process run, and copies the parts after the header of the output file.
+ *</p>
+ *<p>
+ *Workers are started with the same java binary and class path as the coordinator, and with its module, heap and GC options, and each uses an equal share of the available cores.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class ShardCoordinator {
+
+	int workers; // number of worker processes
+	boolean simd; // classify using SimdKernel
+	int cutoff; // sequential cutoff of WriteClouds, 0 for the default
+	boolean autoCutoff; // calibrate the cutoff once, before the workers start
+	int radius = 1; // neighbourhood radius, 1 for the 3x3 neighbourhood
+	// JVM options passed on to workers: modules, heap and GC settings. Debugger agents, log files and heap dump paths are not, as N workers would fight over the same port or file
+	static final String[] WORKER_OPTIONS = {"--add-modules", "-Xmx", "-Xms", "-Xmn", "-Xss", "-XX:MaxRAMPercentage", "-XX:InitialRAMPercentage", "-XX:MinRAMPercentage",
+		"-XX:+Use", "-XX:-Use", "-XX:ParallelGCThreads", "-XX:ConcGCThreads", "-XX:MaxGCPauseMillis"};
+
+	/**
+	*Creates a coordinator starting the given number of worker processes
+	*
+	*@param workers Number of worker processes
+	*@param simd Whether workers classify using SimdKernel rather than the scalar kernel
+	*@param cutoff Sequential cutoff of WriteClouds, or 0 for the default
+	*@param autoCutoff Whether to find the cutoff of the workers using CutoffTuner
+	*/
+	public ShardCoordinator(int workers, boolean simd, int cutoff, boolean autoCutoff) {
+		this.workers = workers;
+		this.simd = simd;
+		this.cutoff = cutoff;
+		this.autoCutoff = autoCutoff;
+	}
+
+	/**
+	* Classifies every time slice of the input file using the worker processes and writes the output file
+	*
+	*@param input Name of file to read data from
+	*@param output Name of file to write data to
+	*@return Vector of doubles representing the average x and y wind values
+	*@throws IOException If a file cannot be accessed or a worker fails
+	*/
+	public Vector<Double> run(String input, String output) throws IOException {
+		SliceReader reader = SliceReader.open(input);
+		int dimt = reader.dimt, dimx = reader.dimx, dimy = reader.dimy;
+		reader.close();
+		int count = Math.max(1, Math.min(workers, dimt));
+		int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors()/count);
+		int workerCutoff = autoCutoff ? calibrateCutoff(input, parallelism) : cutoff;
+
+		File[] parts = new File[count];
+		int[] first = new int[count+1];
+		List<Process> processes = new ArrayList<Process>();
+		try {
+			for(int i = 0; i < count; i++) {
+				first[i] = (int)((long)i*dimt/count);
+				first[i+1] = (int)((long)(i+1)*dimt/count);
+				parts[i] = new File(output+".part"+i);
+				processes.add(new ProcessBuilder(workerCommand(input, parts[i], first[i], first[i+1], parallelism, workerCutoff)).inheritIO().start());
+			}
+			for(int i = 0; i < count; i++) {
+				int exit = processes.get(i).waitFor();
+				if(exit != 0) {
+					throw new IOException("Worker "+i+" for time slices "+first[i]+" to "+first[i+1]+" failed with exit code "+exit);
+				}
+			}
+
+			double[] slicex = new double[dimt];
+			double[] slicey = new double[dimt];
+			for(int i = 0; i < count; i++) {
+				readSums(parts[i], first[i+1]-first[i], slicex, slicey, first[i]);
+			}
+			long numPoints = (long)dimt*dimx*dimy;
+			Vector<Double> wind = new Vector<Double>();
+			wind.add(WindSums.pairwise(slicex, 0, dimt)/numPoints);
+			wind.add(WindSums.pairwise(slicey, 0, dimt)/numPoints);
+
+			try (FileOutputStream out = new FileOutputStream(output)) {
+				out.write(CloudWriter.header(dimt, dimx, dimy, wind));
+				for(int i = 0; i < count; i++) {
+					try (FileInputStream in = new FileInputStream(parts[i])) {
+						FileChannel src = in.getChannel();
+						long size = src.size();
+						for(long pos = 16L*(first[i+1]-first[i]); pos < size; ) {
+							pos += src.transferTo(pos, size-pos, out.getChannel());
+						}
+					}
+				}
+			}
+			return wind;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for workers");
+		}
+		finally {
+			for(Process p : processes) {
+				p.destroy();
+			}
+			for(File part : parts) {
+				if(part != null) {
+					part.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	* Builds the command line starting a worker with the same java binary and class path as this process, and its module, heap and GC options
+	*/
+	List<String> workerCommand(String input, File part, int t0, int t1, int parallelism, int cutoff) {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		for(String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			for(String prefix : WORKER_OPTIONS) {
+				if(option.startsWith(prefix)) {
+					command.add(option);
+					break;
+				}
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("ShardCoordinator");
+		command.add(input);
+		command.add(part.getPath());
+		command.add(Integer.toString(t0));
+		command.add(Integer.toString(t1));
+		command.add(Integer.toString(parallelism));
+		command.add(simd ? "simd" : "scalar");
+		command.add(Integer.toString(cutoff));
+		command.add(Integer.toString(radius));
+		return command;
+	}
+
+	/**
+	* Finds the cutoff of the workers on the first time slice, calibrating with the parallelism of one worker if no cutoff is stored
+	*
+	*<p>
+	*Calibrating once here, rather than in every worker, keeps the workers from timing candidates while competing with each other for the cores and storing the skewed result.
+	*</p>
+	*/
+	int calibrateCutoff(String input, int parallelism) throws IOException {
+		SliceReader reader = SliceReader.open(input);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			CloudGrid slice = reader.newSlice();
+			reader.readSlice(slice);
+			int sliceSize = slice.sliceSize();
+			PackedClassification classification = new PackedClassification(1, reader.dimx, reader.dimy);
+			WindSums sums = new WindSums(slice);
+			String key = CutoffTuner.key(sliceSize, simd ? "simd" : "scalar", "linear");
+			return CutoffTuner.cutoffFor(key, c -> pool.invoke(new WriteClouds(classification, slice, 0, sliceSize, c, simd, sums, radius)));
+		}
+		finally {
+			pool.shutdown();
+			reader.close();
+		}
+	}
+
+	/**
+	* Reads the slice sums at the start of a part file
+	*/
+	static void readSums(File part, int count, double[] slicex, double[] slicey, int t0) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(part, "r")) {
+			ByteBuffer sums = ByteBuffer.allocate(16*count).order(ByteOrder.LITTLE_ENDIAN);
+			while(sums.hasRemaining()) {
+				if(file.getChannel().read(sums, sums.position()) < 0) {
+					throw new IOException("Truncated part file "+part);
+				}
+			}
+			for(int t = 0; t < count; t++) {
+				slicex[t0+t] = sums.getDouble(16*t);
+				slicey[t0+t] = sums.getDouble(16*t + 8);
+			}
+		}
+	}
+
+	/**
+	* Classifies a range of time slices as a worker process, writing the part file read by the coordinator
+	*
+	*@param input Name of file to read data from
+	*@param part Name of the part file to write
+	*@param t0 First time slice to classify
+	*@param t1 Time slice after the last one to classify
+	*@param streamer Streamer classifying the slices on the worker's pool
+	*@throws IOException If either file cannot be accessed
+	*/
+	static void work(String input, String part, int t0, int t1, SliceStreamer streamer) throws IOException {
+		int count = t1-t0;
+		double[] slicex = new double[count];
+		double[] slicey = new double[count];
+		SliceReader reader = SliceReader.open(input);
+		try (FileOutputStream out = new FileOutputStream(part)) {
+			reader.skipSlices(t0);
+			out.write(new byte[16*count]); // room for the slice sums, filled in once known
+			streamer.classifySlices(reader, count, out, slicex, slicey);
+			ByteBuffer sums = ByteBuffer.allocate(16*count).order(ByteOrder.LITTLE_ENDIAN);
+			for(int t = 0; t < count; t++) {
+				sums.putDouble(slicex[t]).putDouble(slicey[t]);
+			}
+			sums.flip();
+			FileChannel channel = out.getChannel();
+			while(sums.hasRemaining()) {
+				channel.write(sums, sums.position());
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	* Entry point of a worker process, started by the coordinator
+	*
+	*@param args Input data file, part file, first time slice, end time slice, parallelism, kernel (simd or scalar), cutoff (a number, or auto) and neighbourhood radius
+	*/
+	public static void main(String[] args) {
+		if(args.length != 8) {
+			System.out.println("ShardCoordinator is started by java CloudData [input data file] [output data file] -p [processes]");
+			System.exit(2);
+		}
+		try {
+			ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(args[4]));
+			boolean auto = args[6].equals("auto");
+			SliceStreamer streamer = new SliceStreamer(pool, args[5].equals("simd") && CloudKernel.simdAvailable(), auto ? 0 : Integer.parseInt(args[6]), auto);
+			streamer.radius = Integer.parseInt(args[7]);
+			work(args[0], args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), streamer);
+		}
+		catch (IOException | RuntimeException e) {
+			System.out.println("Worker failed on "+args[0]+" slices "+args[2]+" to "+args[3]);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,79 @@
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Classifies cloud type for runs of gridpoints using SIMD instructions through the Java Vector API
+ *
+ *<p>
+ *Column sums are found as in CloudKernel, after which the interior of each row is classified a whole vector of y values at a time. The neighbourhood sums, averages and magnitudes use the same operations in the same order as the scalar kernel, so they give the same values, and the cumulus, striated and amorphous decisions are made with masked compares. The first and last columns, the tail of each row and any gridpoint close to a threshold are handled by the scalar code.
+ *</p>
+ *<p>
+ *Requires the incubating vector module, which must be enabled with --add-modules jdk.incubator.vector when compiling and running.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class SimdKernel extends CloudKernel {
+
+	static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	static final VectorSpecies<Integer> INT_SPECIES = VectorSpecies.of(int.class, VectorShape.forBitSize(SPECIES.vectorBitSize()/2)); // same number of lanes
+
+	/**
+	*Creates a new SIMD kernel for the given grid
+	*
+	*@param grid Grid holding the wind and uplift values
+	*/
+	public SimdKernel(CloudGrid grid) {
+		super(grid);
+	}
+
+	/**
+	* Finds cloud type for gridpoints of a row that have a neighbour on both sides, a vector of gridpoints at a time
+	*/
+	void classifyInterior(int t, int x, int from, int to, int rows, double tol, int[] out) {
+		double[] convection = grid.convection;
+		int row = grid.index(t, x, 0);
+		int lanes = SPECIES.length();
+		DoubleVector numPoints = DoubleVector.broadcast(SPECIES, rows*3);
+		DoubleVector threshold = DoubleVector.broadcast(SPECIES, 0.2);
+		DoubleVector tolerance = DoubleVector.broadcast(SPECIES, tol);
+		IntVector amorphous = IntVector.broadcast(INT_SPECIES, 2);
+		int y = from;
+		for(; y + lanes <= to; y += lanes) {
+			DoubleVector sx = DoubleVector.fromArray(SPECIES, colx, y-1)
+				.add(DoubleVector.fromArray(SPECIES, colx, y))
+				.add(DoubleVector.fromArray(SPECIES, colx, y+1));
+			DoubleVector sy = DoubleVector.fromArray(SPECIES, coly, y-1)
+				.add(DoubleVector.fromArray(SPECIES, coly, y))
+				.add(DoubleVector.fromArray(SPECIES, coly, y+1));
+			DoubleVector xav = sx.div(numPoints);
+			DoubleVector yav = sy.div(numPoints);
+			DoubleVector magnitude = xav.mul(xav).add(yav.mul(yav)).lanewise(VectorOperators.SQRT);
+			DoubleVector lift = DoubleVector.fromArray(SPECIES, convection, row+y).lanewise(VectorOperators.ABS);
+
+			VectorMask<Double> cumulus = lift.compare(VectorOperators.GT, magnitude);
+			VectorMask<Double> striated = magnitude.compare(VectorOperators.GT, threshold)
+				.and(magnitude.compare(VectorOperators.GE, lift));
+			amorphous.blend(1, striated.cast(INT_SPECIES))
+				.blend(0, cumulus.cast(INT_SPECIES))
+				.intoArray(out, y);
+
+			VectorMask<Double> near = magnitude.sub(lift).lanewise(VectorOperators.ABS).compare(VectorOperators.LE, tolerance)
+				.or(magnitude.sub(threshold).lanewise(VectorOperators.ABS).compare(VectorOperators.LE, tolerance));
+			if(near.anyTrue()) {
+				for(int lane = 0; lane < lanes; lane++) {
+					if(near.laneIsSet(lane)) {
+						out[y+lane] = findCloud(grid, t, x, y+lane);
+					}
+				}
+			}
+		}
+		super.classifyInterior(t, x, y, to, rows, tol, out); // remaining gridpoints
+	}
+}
@@ -0,0 +1,201 @@
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Classifies an input data file one time slice at a time, overlapping the reading, classifying and writing of consecutive slices
+ *
+ *<p>
+ *SliceStreamer leaves the cores idle while a slice is read or written, and the disk idle while it is classified. Here a reader thread parses slice t+1 while slice t is classified in parallel using WriteClouds and a writer thread formats and writes slice t-1. The stages hand slices on through bounded queues. A fixed number of slice buffers circulates between them, so memory use still depends only on the size of a single slice, and a stage that runs ahead waits for a free buffer. Slices are classified in order using the same WindSums as SliceStreamer, so the output and prevailing wind are identical.
+ *</p>
+ *<p>
+ *The reader and writer run on virtual threads when the JVM provides them, and on platform threads otherwise; they spend most of their time blocked on I/O or on a queue.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class SlicePipeline extends SliceStreamer {
+
+	static final int DEFAULT_DEPTH = 3; // slice buffers in flight: one being read, one classified and one written
+
+	int depth;
+
+	/**
+	 * Buffers for one time slice, passed from stage to stage
+	 */
+	static class Slot {
+		CloudGrid grid;
+		PackedClassification classification;
+		byte[] line;
+
+		Slot(SliceReader reader) {
+			grid = reader.newSlice();
+			classification = new PackedClassification(1, reader.dimx, reader.dimy);
+			line = new byte[CloudWriter.sliceBytes(reader.dimx, reader.dimy)];
+		}
+
+		Slot() {
+		}
+	}
+
+	static final Slot END = new Slot(); // marks the end of the slices passed to a stage
+
+	/**
+	*Creates a new SlicePipeline that classifies each slice using the given pool
+	*
+	*@param pool Pool used to run WriteClouds tasks
+	*@param simd Whether to classify using SimdKernel rather than the scalar kernel
+	*@param cutoff Sequential cutoff of WriteClouds, or 0 for the default
+	*@param autoCutoff Whether to find the cutoff using CutoffTuner once the first slice has been read
+	*/
+	public SlicePipeline(ForkJoinPool pool, boolean simd, int cutoff, boolean autoCutoff) {
+		super(pool, simd, cutoff, autoCutoff);
+		depth = DEFAULT_DEPTH;
+	}
+
+	/**
+	* Reads, classifies and writes a number of time slices, starting from the next slice of the reader, with the three stages overlapping
+	*
+	*@param reader Reader positioned at the first slice to classify
+	*@param count Number of slices to classify
+	*@param out Stream the formatted output line of each slice is written to
+	*@param slicex Array receiving the x wind sum of each slice, starting at index 0
+	*@param slicey Array receiving the y wind sum of each slice, starting at index 0
+	*@throws IOException If either file cannot be accessed
+	*/
+	public void classifySlices(SliceReader reader, int count, OutputStream out, double[] slicex, double[] slicey) throws IOException {
+		BlockingQueue<Slot> free = new ArrayBlockingQueue<Slot>(depth);
+		BlockingQueue<Slot> read = new ArrayBlockingQueue<Slot>(depth+1);
+		BlockingQueue<Slot> classified = new ArrayBlockingQueue<Slot>(depth+1);
+		for(int i = 0; i < depth; i++) {
+			free.add(new Slot(reader));
+		}
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Thread readerThread = startThread(() -> {
+			try {
+				for(int t = 0; t < count; t++) {
+					Slot slot = free.take();
+					RunMetrics.Timer load = RunMetrics.start(RunMetrics.LOAD);
+					reader.readSlice(slot.grid);
+					load.stop();
+					read.put(slot);
+				}
+			}
+			catch (InterruptedException e) {
+				// stopped by a failed classification
+			}
+			catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+			read.add(END);
+		});
+
+		Thread writerThread = startThread(() -> {
+			try {
+				for(Slot slot = classified.take(); slot != END; slot = classified.take()) {
+					if(failure.get() == null) { // after a failure, keep returning buffers so the other stages can finish
+						try {
+							RunMetrics.Timer write = RunMetrics.start(RunMetrics.WRITE);
+							CloudWriter.formatSlice(slot.classification, 0, slot.line);
+							out.write(slot.line);
+							write.stop();
+						}
+						catch (Throwable e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+					free.put(slot);
+				}
+			}
+			catch (InterruptedException e) {
+				// stopped by a failed classification
+			}
+		});
+
+		try {
+			WindSums sums = null;
+			int t = 0;
+			for(Slot slot = read.take(); slot != END && failure.get() == null; slot = read.take()) {
+				CloudGrid slice = slot.grid;
+				int sliceSize = slice.sliceSize();
+				if(sums == null) {
+					sums = new WindSums(slice);
+					if(autoCutoff) {
+						String key = CutoffTuner.key(sliceSize, simd ? "simd" : "scalar", "linear");
+						WindSums s = sums;
+						PackedClassification classification = slot.classification;
+						cutoff = CutoffTuner.cutoffFor(key, c -> pool.invoke(new WriteClouds(classification, slice, 0, sliceSize, c, simd, s, radius)));
+					}
+				}
+				RunMetrics.Timer classify = RunMetrics.start(RunMetrics.CLASSIFY);
+				pool.invoke(new WriteClouds(slot.classification, slice, 0, sliceSize, cutoff, simd, sums, radius));
+				sums.reduceSlices(0, 1); // same blocks and order as CloudData.findAverage
+				slicex[t] = sums.slicex[0];
+				slicey[t] = sums.slicey[0];
+				t++;
+				classify.stop();
+				classified.put(slot);
+			}
+			if(failure.get() != null) { // a failed stage makes the rest of the file useless, so stop reading it
+				readerThread.interrupt();
+			}
+			classified.put(END);
+			readerThread.join();
+			writerThread.join();
+		}
+		catch (InterruptedException | RuntimeException e) {
+			failure.compareAndSet(null, e); // before interrupting, so an I/O error caused by the interrupt is not reported instead
+			readerThread.interrupt();
+			writerThread.interrupt();
+			if(e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		Throwable e = failure.get();
+		if(e instanceof IOException) {
+			throw (IOException)e;
+		}
+		if(e instanceof RuntimeException) {
+			throw (RuntimeException)e;
+		}
+		if(e != null) {
+			throw new IOException("Pipeline stage failed", e);
+		}
+	}
+
+	/**
+	* Starts a thread running the given stage, virtual if the JVM supports virtual threads
+	*
+	*@param stage Stage to run
+	*@return Thread running the stage
+	*/
+	static Thread startThread(Runnable stage) {
+		return startThread(stage, "slice-pipeline");
+	}
+
+	/**
+	* Starts a thread running the given task, virtual if the JVM supports virtual threads
+	*
+	*@param task Task to run
+	*@param name Name of the platform thread started when virtual threads are not supported
+	*@return Thread running the task
+	*/
+	static Thread startThread(Runnable task, String name) {
+		try {
+			return (Thread)Thread.class.getMethod("startVirtualThread", Runnable.class).invoke(null, task);
+		}
+		catch (ReflectiveOperationException e) {
+			Thread thread = new Thread(task, name);
+			thread.setDaemon(true);
+			thread.start();
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.InputMismatchException;
+
+/**
+ * Reads an input data file one time slice at a time, so that only a single slice needs to be held in memory
+ *
+ *<p>
+ *Text files are tokenized sequentially from a buffered stream using the number parser of TextParser. Files in the binary grid format are read with positional reads of the three value arrays.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public abstract class SliceReader {
+
+	int dimt, dimx, dimy; // data dimensions of the whole file
+	int nextSlice = 0; // time value of the next slice to be read
+
+	/**
+	* Opens the given file, choosing a reader that matches its format
+	*
+	*@param fileName Name of file to read data from
+	*@return SliceReader positioned at the first time slice
+	*@throws IOException If the file cannot be opened
+	*/
+	public static SliceReader open(String fileName) throws IOException {
+		if(GridFile.isGridFile(fileName)) {
+			return new BinarySliceReader(fileName);
+		}
+		return new TextSliceReader(fileName);
+	}
+
+	/**
+	* Creates an empty grid holding a single time slice of this file
+	*
+	*@return CloudGrid with one timestep and the dimensions of this file
+	*/
+	public CloudGrid newSlice() {
+		return new CloudGrid(1, dimx, dimy);
+	}
+
+	/**
+	* Reads the next time slice of the file into the given single slice grid
+	*
+	*@param slice Grid with one timestep to be filled
+	*@throws IOException If the file cannot be read
+	*/
+	public void readSlice(CloudGrid slice) throws IOException {
+		if(nextSlice >= dimt) {
+			throw new InputMismatchException("No time slices left");
+		}
+		fill(slice);
+		nextSlice++;
+	}
+
+	abstract void fill(CloudGrid slice) throws IOException;
+
+	/**
+	* Checks the dimensions read from the header, so that a damaged header is reported rather than failing when the slice grid is allocated
+	*
+	*@param maxSlice Largest number of gridpoints a time slice may hold
+	*@throws IOException If a dimension is not positive or a time slice would be too large
+	*/
+	void checkDimensions(long maxSlice) throws IOException {
+		if(dimt < 1 || dimx < 1 || dimy < 1) {
+			throw new IOException("Invalid dimensions "+dimt+" "+dimx+" "+dimy);
+		}
+		if((long)dimx*dimy > maxSlice) {
+			throw new IOException("Time slices of "+dimx+"x"+dimy+" gridpoints are too large to read");
+		}
+	}
+
+	/**
+	* Moves past time slices without keeping their values
+	*
+	*@param slices Number of time slices to skip
+	*@throws IOException If the file cannot be read
+	*/
+	public void skipSlices(int slices) throws IOException {
+		if(nextSlice + slices > dimt) {
+			throw new InputMismatchException("No time slices left");
+		}
+		skip(slices);
+		nextSlice += slices;
+	}
+
+	abstract void skip(int slices) throws IOException;
+
+	/**
+	* Closes the underlying file
+	*
+	*@throws IOException If the file cannot be closed
+	*/
+	public abstract void close() throws IOException;
+
+
+	/**
+	 * Reads time slices from a whitespace separated text file
+	 */
+	static class TextSliceReader extends SliceReader {
+		InputStream in;
+		byte[] token = new byte[TextParser.MAX_TOKEN];
+		int tokenLength;
+
+		TextSliceReader(String fileName) throws IOException {
+			in = new BufferedInputStream(new FileInputStream(fileName), 1 << 16);
+			try {
+				dimt = nextInt();
+				dimx = nextInt();
+				dimy = nextInt();
+				checkDimensions(Integer.MAX_VALUE);
+			}
+			catch (IOException | RuntimeException e) {
+				in.close();
+				throw e;
+			}
+		}
+
+		void fill(CloudGrid slice) throws IOException {
+			int size = slice.sliceSize();
+			for(int pos = 0; pos < size; pos++) {
+				slice.windx[pos] = nextDouble();
+				slice.windy[pos] = nextDouble();
+				slice.convection[pos] = nextDouble();
+			}
+		}
+
+		void skip(int slices) throws IOException {
+			long tokens = 3L*slices*dimx*dimy;
+			for(long i = 0; i < tokens; i++) {
+				nextToken();
+			}
+		}
+
+		int nextInt() throws IOException {
+			nextToken();
+			return TextParser.parseInt(token, 0, tokenLength);
+		}
+
+		double nextDouble() throws IOException {
+			nextToken();
+			return TextParser.parseDouble(token, 0, tokenLength);
+		}
+
+		void nextToken() throws IOException {
+			int b = in.read();
+			while(b >= 0 && TextParser.isSpace((byte)b)) {
+				b = in.read();
+			}
+			if(b < 0) {
+				throw new InputMismatchException("Unexpected end of input");
+			}
+			tokenLength = 0;
+			while(b >= 0 && !TextParser.isSpace((byte)b)) {
+				if(tokenLength == token.length) {
+					throw new InputMismatchException("Token longer than "+token.length+" bytes");
+				}
+				token[tokenLength++] = (byte)b;
+				b = in.read();
+			}
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Reads time slices from a file in the binary grid format
+	 */
+	static class BinarySliceReader extends SliceReader {
+		RandomAccessFile file;
+		FileChannel channel;
+		ByteBuffer buffer; // holds one slice of one array
+
+		BinarySliceReader(String fileName) throws IOException {
+			file = new RandomAccessFile(fileName, "r");
+			channel = file.getChannel();
+			try {
+				ByteBuffer header = ByteBuffer.allocate(GridFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				channel.read(header, 0);
+				if(header.getInt(4) != GridFile.VERSION) {
+					throw new IOException("Unsupported grid file version "+header.getInt(4));
+				}
+				dimt = header.getInt(8);
+				dimx = header.getInt(12);
+				dimy = header.getInt(16);
+				checkDimensions(Integer.MAX_VALUE/8); // one array of a slice is read through a single buffer
+			}
+			catch (IOException e) {
+				file.close();
+				throw e;
+			}
+			buffer = ByteBuffer.allocateDirect(8*dimx*dimy).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		void fill(CloudGrid slice) throws IOException {
+			long arrayBytes = 8L*dimt*dimx*dimy;
+			long offset = GridFile.HEADER_SIZE + 8L*nextSlice*dimx*dimy;
+			readArray(offset, slice.windx);
+			readArray(offset + arrayBytes, slice.windy);
+			readArray(offset + 2*arrayBytes, slice.convection);
+		}
+
+		void skip(int slices) {
+			// slices are read by position, so nothing needs to be read
+		}
+
+		void readArray(long offset, double[] values) throws IOException {
+			buffer.clear();
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer, offset + buffer.position()) < 0) {
+					throw new InputMismatchException("Truncated grid file");
+				}
+			}
+			buffer.flip();
+			buffer.asDoubleBuffer().get(values);
+		}
+
+		public void close() throws IOException {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Classifies an input data file one time slice at a time, so that memory use depends only on the size of a single slice
+ *
+ *<p>
+ *Each slice is read, classified in parallel using WriteClouds and written out before the next slice is read. Cloud classification never looks across timesteps and WindSums reduces each slice before adding the slice sums, so the output is identical to classifying the whole grid at once. As the prevailing wind is only known once every slice has been read, the slices are first written to a temporary file next to the output file and then copied after the header.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class SliceStreamer {
+
+	ForkJoinPool pool;
+	boolean simd; // classify using SimdKernel
+	int cutoff; // sequential cutoff of WriteClouds
+	boolean autoCutoff; // calibrate the cutoff on the first slice
+	int radius = 1; // neighbourhood radius, 1 for the 3x3 neighbourhood
+
+	/**
+	*Creates a new SliceStreamer that classifies each slice using the given pool
+	*
+	*@param pool Pool used to run WriteClouds tasks
+	*@param simd Whether to classify using SimdKernel rather than the scalar kernel
+	*@param cutoff Sequential cutoff of WriteClouds, or 0 for the default
+	*@param autoCutoff Whether to find the cutoff using CutoffTuner once the first slice has been read
+	*/
+	public SliceStreamer(ForkJoinPool pool, boolean simd, int cutoff, boolean autoCutoff) {
+		this.pool = pool;
+		this.simd = simd;
+		this.cutoff = (cutoff == 0) ? WriteClouds.SEQUENTIAL_CUTOFF : cutoff;
+		this.autoCutoff = autoCutoff;
+	}
+
+	/**
+	* Reads, classifies and writes every time slice of the input file in turn
+	*
+	*@param input Name of file to read data from
+	*@param output Name of file to write data to
+	*@return Vector of doubles representing the average x and y wind values
+	*@throws IOException If either file cannot be accessed
+	*/
+	public Vector<Double> run(String input, String output) throws IOException {
+		SliceReader reader = SliceReader.open(input);
+		int dimt = reader.dimt, dimx = reader.dimx, dimy = reader.dimy;
+		double[] slicex = new double[dimt];
+		double[] slicey = new double[dimt];
+
+		File slices = new File(output+".slices");
+		try (OutputStream out = new FileOutputStream(slices)) {
+			classifySlices(reader, dimt, out, slicex, slicey);
+		}
+		catch (IOException | RuntimeException e) {
+			slices.delete();
+			throw e;
+		}
+		finally {
+			reader.close();
+		}
+
+		long numPoints = (long)dimt*dimx*dimy;
+		Vector<Double> wind = new Vector<Double>();
+		wind.add(WindSums.pairwise(slicex, 0, dimt)/numPoints);
+		wind.add(WindSums.pairwise(slicey, 0, dimt)/numPoints);
+
+		try (FileOutputStream out = new FileOutputStream(output);
+			FileInputStream in = new FileInputStream(slices)) {
+			out.write(CloudWriter.header(dimt, dimx, dimy, wind));
+			FileChannel src = in.getChannel();
+			long size = src.size();
+			for(long pos = 0; pos < size; ) {
+				pos += src.transferTo(pos, size-pos, out.getChannel());
+			}
+		}
+		finally {
+			slices.delete();
+		}
+		return wind;
+	}
+
+	/**
+	* Reads, classifies and writes a number of time slices, starting from the next slice of the reader
+	*
+	*@param reader Reader positioned at the first slice to classify
+	*@param count Number of slices to classify
+	*@param out Stream the formatted output line of each slice is written to
+	*@param slicex Array receiving the x wind sum of each slice, starting at index 0
+	*@param slicey Array receiving the y wind sum of each slice, starting at index 0
+	*@throws IOException If either file cannot be accessed
+	*/
+	public void classifySlices(SliceReader reader, int count, OutputStream out, double[] slicex, double[] slicey) throws IOException {
+		CloudGrid slice = reader.newSlice();
+		PackedClassification classification = new PackedClassification(1, reader.dimx, reader.dimy);
+		int sliceSize = slice.sliceSize();
+		WindSums sums = new WindSums(slice);
+		byte[] line = new byte[CloudWriter.sliceBytes(reader.dimx, reader.dimy)];
+		for(int t = 0; t < count; t++) {
+			RunMetrics.Timer load = RunMetrics.start(RunMetrics.LOAD);
+			reader.readSlice(slice);
+			load.stop();
+			if(t == 0 && autoCutoff) {
+				String key = CutoffTuner.key(sliceSize, simd ? "simd" : "scalar", "linear");
+				cutoff = CutoffTuner.cutoffFor(key, c -> pool.invoke(new WriteClouds(classification, slice, 0, sliceSize, c, simd, sums, radius)));
+			}
+			RunMetrics.Timer classify = RunMetrics.start(RunMetrics.CLASSIFY);
+			pool.invoke(new WriteClouds(classification, slice, 0, sliceSize, cutoff, simd, sums, radius));
+			sums.reduceSlices(0, 1); // same blocks and order as CloudData.findAverage
+			slicex[t] = sums.slicex[0];
+			slicey[t] = sums.slicey[0];
+			classify.stop();
+			RunMetrics.Timer write = RunMetrics.start(RunMetrics.WRITE);
+			CloudWriter.formatSlice(classification, 0, line);
+			out.write(line);
+			write.stop();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Engine classifying runs of rows with a parallel IntStream
+ *
+ *<p>
+ *The rows are cut into runs of about cutoff gridpoints, and IntStream.range(...).parallel() classifies one run per index. A parallel stream runs its tasks in the ForkJoinPool it is started from, so the stream is started inside a pool of the given parallelism rather than in the common pool. How the stream splits the index range into tasks is left to the stream library.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class StreamEngine implements ClassificationEngine {
+
+	ForkJoinPool pool;
+
+	/**
+	*Creates an engine running its streams in a pool of the given parallelism
+	*
+	*@param parallelism Number of worker threads
+	*/
+	public StreamEngine(int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	public double[] classify(CloudGrid grid, PackedClassification classification, int slices, int cutoff, boolean simd, int radius, WindSums sums) {
+		int rows = slices*grid.dimx;
+		int run = Math.max(1, cutoff/grid.dimy); // rows per index
+		int runs = (rows + run - 1)/run;
+		pool.submit(() -> IntStream.range(0, runs).parallel().forEach(i ->
+			ClassificationEngine.classifyRows(grid, classification, i*run, Math.min(rows, (i+1)*run), simd, radius, sums))).join();
+		return sums.total(slices);
+	}
+
+	public String name() {
+		return "stream";
+	}
+
+	public int parallelism() {
+		return pool.getParallelism();
+	}
+
+	public void close() {
+		pool.shutdown();
+	}
+}
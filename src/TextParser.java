@@ -0,0 +1,479 @@
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.InputMismatchException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses whitespace separated text data files using parallelization
+ *
+ *<p>
+ *The file is read as raw bytes and divided into fixed size chunks. A token belongs to the chunk in which its first byte lies. A first parallel pass counts the tokens in every chunk, which gives the index of the first token of each chunk. A second parallel pass then parses every token with a hand-written number parser and hands it to a TokenSink together with its index, so values can be written straight to the correct position in the destination arrays.
+ *</p>
+ *<p>
+ *Numbers are parsed to exactly the same values as Scanner.nextDouble and Scanner.nextInt would give. Decimal values with up to 15 significant digits and a small exponent are converted exactly using a single correctly rounded multiplication or division; anything else falls back to Double.parseDouble.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class TextParser {
+
+	static final int CHUNK_SIZE = 1 << 22; // bytes per chunk
+	static final int MAX_TOKEN = 256; // longest token that may cross a chunk boundary
+	static final int HEADER_BYTES = 4096; // bytes scanned for header tokens
+	static final long MAX_FAST_MANTISSA = 1L << 53;
+	static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	/**
+	 * Receives the tokens found by the parser
+	 */
+	abstract static class TokenSink {
+		/**
+		* Handles a single token
+		*
+		*@param index Position of the token in the file, counting from 0
+		*@param buf Array holding the token bytes
+		*@param off Offset of the first byte of the token
+		*@param len Number of bytes in the token
+		*/
+		abstract void token(long index, byte[] buf, int off, int len);
+	}
+
+	FileChannel channel;
+	long fileSize;
+	int numChunks;
+	long[] chunkTokens; // number of tokens starting in each chunk, then index of first token of each chunk
+	ForkJoinPool pool;
+
+	/**
+	*Opens the given file for parsing
+	*
+	*@param fileName Name of the file to parse
+	*@param pool Pool used to run the parsing tasks
+	*@throws IOException If the file cannot be opened
+	*/
+	public TextParser(String fileName, ForkJoinPool pool) throws IOException {
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		fileSize = channel.size();
+		numChunks = (int)Math.max(1, (fileSize + CHUNK_SIZE - 1)/CHUNK_SIZE);
+		this.pool = pool;
+	}
+
+	/**
+	* Parses the grid dimensions at the start of a header, checking that a grid of that size can be held before any array is allocated
+	*
+	*@param header Header tokens, starting with dimt, dimx and dimy
+	*@return Integer array holding the dimensions dimt, dimx and dimy
+	*@throws NumberFormatException If a dimension is not an integer
+	*@throws InputMismatchException If a dimension is not positive or the grid holds more than Integer.MAX_VALUE gridpoints
+	*/
+	public static int[] dimensions(String[] header) {
+		int[] dims = {Integer.parseInt(header[0]), Integer.parseInt(header[1]), Integer.parseInt(header[2])};
+		if(dims[0] < 1 || dims[1] < 1 || dims[2] < 1) {
+			throw new InputMismatchException("Invalid dimensions "+dims[0]+" "+dims[1]+" "+dims[2]);
+		}
+		if((long)dims[0]*dims[1]*dims[2] > Integer.MAX_VALUE) {
+			throw new InputMismatchException("Grid of "+dims[0]+"x"+dims[1]+"x"+dims[2]+" is too large to load");
+		}
+		return dims;
+	}
+
+	/**
+	* Reads the first tokens of the file sequentially, for use in sizing the destination arrays
+	*
+	*@param count Number of tokens to read
+	*@return Array of the token strings
+	*@throws IOException If the file cannot be read
+	*/
+	public String[] header(int count) throws IOException {
+		byte[] buf = new byte[(int)Math.min(fileSize, HEADER_BYTES)];
+		read(buf, 0, buf.length);
+		String[] tokens = new String[count];
+		int pos = 0;
+		for(int i = 0; i < count; i++) {
+			while(pos < buf.length && isSpace(buf[pos])) {
+				pos++;
+			}
+			int start = pos;
+			while(pos < buf.length && !isSpace(buf[pos])) {
+				pos++;
+			}
+			if(start == pos) {
+				throw new InputMismatchException("Missing header value");
+			}
+			tokens[i] = new String(buf, start, pos-start, StandardCharsets.ISO_8859_1);
+		}
+		return tokens;
+	}
+
+	/**
+	* Parses the whole file in parallel, passing every token to the sink
+	*
+	*@param sink Sink that receives each token with its index
+	*@return Long value representing the total number of tokens in the file
+	*@throws IOException If the file cannot be read
+	*/
+	public long parse(TokenSink sink) throws IOException {
+		chunkTokens = new long[numChunks];
+		run(new ChunkTask(this, null, 0, numChunks));
+		long total = 0;
+		for(int c = 0; c < numChunks; c++) { // prefix sum gives the index of the first token of each chunk
+			long count = chunkTokens[c];
+			chunkTokens[c] = total;
+			total += count;
+		}
+		run(new ChunkTask(this, sink, 0, numChunks));
+		return total;
+	}
+
+	/**
+	* Closes the underlying file
+	*
+	*@throws IOException If the file cannot be closed
+	*/
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void run(ChunkTask task) throws IOException {
+		try {
+			pool.invoke(task);
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	* Reads bytes from the file at the given position until the array is full or the end of the file is reached
+	*
+	*@return Integer value representing the number of bytes read
+	*/
+	int read(byte[] buf, long position, int len) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+		while(bb.hasRemaining()) {
+			int n = channel.read(bb, position + bb.position());
+			if(n < 0) {
+				break;
+			}
+		}
+		return bb.position();
+	}
+
+	/**
+	* Counts or parses the tokens starting in a single chunk
+	*
+	*@param chunk Index of the chunk
+	*@param sink Sink to pass tokens to, or null to only count them
+	*/
+	void processChunk(int chunk, TokenSink sink) throws IOException {
+		long start = (long)chunk*CHUNK_SIZE;
+		long end = Math.min(fileSize, start + CHUNK_SIZE);
+		long from = Math.max(0, start-1); // one byte before the chunk tells whether a token crosses into it
+		byte[] buf = new byte[(int)(end-from) + MAX_TOKEN];
+		int len = read(buf, from, buf.length);
+		int limit = (int)(end-from); // tokens must start before this position
+		int pos = (int)(start-from);
+		if(pos > 0 && !isSpace(buf[pos-1])) { // skip a token started in the previous chunk
+			while(pos < len && !isSpace(buf[pos])) {
+				pos++;
+			}
+		}
+		long index = (sink == null) ? 0 : chunkTokens[chunk];
+		while(true) {
+			while(pos < limit && isSpace(buf[pos])) {
+				pos++;
+			}
+			if(pos >= limit) {
+				break;
+			}
+			int tokenStart = pos;
+			while(pos < len && !isSpace(buf[pos])) {
+				pos++;
+			}
+			if(pos == len && from + len < fileSize) {
+				throw new InputMismatchException("Token longer than "+MAX_TOKEN+" bytes at offset "+(from+tokenStart));
+			}
+			if(sink != null) {
+				sink.token(index, buf, tokenStart, pos-tokenStart);
+			}
+			index++;
+		}
+		if(sink == null) {
+			chunkTokens[chunk] = index;
+		}
+	}
+
+	/**
+	* Checks whether a byte separates tokens
+	*
+	*@param b Byte to be checked
+	*@return Boolean value indicating whether the byte is whitespace
+	*/
+	static boolean isSpace(byte b) {
+		return (b <= ' ') && (b >= 0);
+	}
+
+	/**
+	* Parses a decimal number to the same double value as Double.parseDouble
+	*
+	*@param buf Array holding the token bytes
+	*@param off Offset of the first byte of the token
+	*@param len Number of bytes in the token
+	*@return Double value represented by the token
+	*/
+	static double parseDouble(byte[] buf, int off, int len) {
+		int pos = off;
+		int end = off+len;
+		boolean negative = false;
+		if(pos < end && (buf[pos] == '-' || buf[pos] == '+')) {
+			negative = (buf[pos] == '-');
+			pos++;
+		}
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean fast = true;
+		while(pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+			if(mantissa < MAX_FAST_MANTISSA/10) {
+				mantissa = mantissa*10 + (buf[pos]-'0');
+			}
+			else {
+				fast = false;
+			}
+			digits++;
+			pos++;
+		}
+		if(pos < end && buf[pos] == '.') {
+			pos++;
+			while(pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+				if(mantissa < MAX_FAST_MANTISSA/10) {
+					mantissa = mantissa*10 + (buf[pos]-'0');
+					exponent--;
+				}
+				else {
+					fast = false;
+				}
+				digits++;
+				pos++;
+			}
+		}
+		if(digits == 0) {
+			return slowDouble(buf, off, len);
+		}
+		if(pos < end && (buf[pos] == 'e' || buf[pos] == 'E')) {
+			pos++;
+			boolean negExp = false;
+			if(pos < end && (buf[pos] == '-' || buf[pos] == '+')) {
+				negExp = (buf[pos] == '-');
+				pos++;
+			}
+			int expDigits = 0;
+			int exp = 0;
+			while(pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+				if(exp < 10000) {
+					exp = exp*10 + (buf[pos]-'0');
+				}
+				expDigits++;
+				pos++;
+			}
+			if(expDigits == 0) {
+				return slowDouble(buf, off, len);
+			}
+			exponent += negExp ? -exp : exp;
+		}
+		if(pos != end || !fast || exponent < -22 || exponent > 22) {
+			return slowDouble(buf, off, len);
+		}
+		double value = (double)mantissa; // exact, as mantissa < 2^53
+		if(exponent < 0) {
+			value = value / POWERS_OF_TEN[-exponent];
+		}
+		else {
+			value = value * POWERS_OF_TEN[exponent];
+		}
+		return negative ? -value : value;
+	}
+
+	private static double slowDouble(byte[] buf, int off, int len) {
+		String token = new String(buf, off, len, StandardCharsets.ISO_8859_1);
+		try {
+			return Double.parseDouble(token);
+		}
+		catch (NumberFormatException e) {
+			throw new InputMismatchException("Not a number: "+token);
+		}
+	}
+
+	/**
+	* Parses a decimal integer to the same value as Integer.parseInt
+	*
+	*@param buf Array holding the token bytes
+	*@param off Offset of the first byte of the token
+	*@param len Number of bytes in the token
+	*@return Integer value represented by the token
+	*/
+	static int parseInt(byte[] buf, int off, int len) {
+		int pos = off;
+		int end = off+len;
+		boolean negative = false;
+		if(pos < end && (buf[pos] == '-' || buf[pos] == '+')) {
+			negative = (buf[pos] == '-');
+			pos++;
+		}
+		if(pos == end || end-pos > 9) { // longer values may overflow, leave them to the library
+			String token = new String(buf, off, len, StandardCharsets.ISO_8859_1);
+			try {
+				return Integer.parseInt(token);
+			}
+			catch (NumberFormatException e) {
+				throw new InputMismatchException("Not an integer: "+token);
+			}
+		}
+		int value = 0;
+		for(; pos < end; pos++) {
+			int digit = buf[pos]-'0';
+			if(digit < 0 || digit > 9) {
+				throw new InputMismatchException("Not an integer: "+new String(buf, off, len, StandardCharsets.ISO_8859_1));
+			}
+			value = value*10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Writes the values of an input data file into a grid
+	 */
+	static class GridSink extends TokenSink {
+		CloudGrid grid;
+		long first; // index of the first value token
+		long last;
+
+		GridSink(CloudGrid grid, int headerTokens) {
+			this.grid = grid;
+			first = headerTokens;
+			last = first + 3L*grid.size();
+		}
+
+		void token(long index, byte[] buf, int off, int len) {
+			if(index < first) {
+				return;
+			}
+			if(index >= last) {
+				throw new InputMismatchException("Too many values");
+			}
+			long k = index-first;
+			int pos = (int)(k/3);
+			switch((int)(k - 3L*pos)) {
+				case 0: grid.windx[pos] = parseDouble(buf, off, len); break;
+				case 1: grid.windy[pos] = parseDouble(buf, off, len); break;
+				default: grid.convection[pos] = parseDouble(buf, off, len);
+			}
+		}
+	}
+
+	/**
+	 * Writes the values of an input data file into a grid of 32-bit floats
+	 */
+	static class FloatGridSink extends TokenSink {
+		FloatGrid grid;
+		long first; // index of the first value token
+		long last;
+
+		FloatGridSink(FloatGrid grid, int headerTokens) {
+			this.grid = grid;
+			first = headerTokens;
+			last = first + 3L*grid.size();
+		}
+
+		void token(long index, byte[] buf, int off, int len) {
+			if(index < first) {
+				return;
+			}
+			if(index >= last) {
+				throw new InputMismatchException("Too many values");
+			}
+			long k = index-first;
+			int pos = (int)(k/3);
+			switch((int)(k - 3L*pos)) {
+				case 0: grid.windx[pos] = (float)parseDouble(buf, off, len); break;
+				case 1: grid.windy[pos] = (float)parseDouble(buf, off, len); break;
+				default: grid.convection[pos] = (float)parseDouble(buf, off, len);
+			}
+		}
+	}
+
+	/**
+	 * Writes the cloud types of an output data file into a 3D array
+	 */
+	static class ClassificationSink extends TokenSink {
+		PackedClassification classification;
+		int dimx, dimy;
+		long first; // index of the first classification token
+		long last;
+
+		ClassificationSink(PackedClassification classification, int headerTokens) {
+			this.classification = classification;
+			dimx = classification.dimx;
+			dimy = classification.dimy;
+			first = headerTokens;
+			last = first + (long)classification.dimt*dimx*dimy;
+		}
+
+		void token(long index, byte[] buf, int off, int len) {
+			if(index < first) {
+				return;
+			}
+			if(index >= last) {
+				throw new InputMismatchException("Too many values");
+			}
+			int pos = (int)(index-first);
+			int cloud = parseInt(buf, off, len);
+			if(cloud < 0 || cloud > 2) { // would spill into the neighbouring 2-bit fields
+				throw new InputMismatchException("Invalid cloud type "+cloud);
+			}
+			// chunks are split at arbitrary tokens, so two chunks may share a byte of the classification
+			classification.setAtomic(pos/(dimx*dimy), (pos % (dimx*dimy))/dimy, pos % dimy, cloud);
+		}
+	}
+
+	/**
+	 * Threaded class to count or parse the tokens of a range of chunks using parallelization
+	 */
+	static class ChunkTask extends RecursiveAction {
+		TextParser parser;
+		TokenSink sink;
+		int lo;
+		int hi;
+
+		ChunkTask(TextParser parser, TokenSink sink, int lo, int hi) {
+			this.parser = parser; this.sink = sink; this.lo = lo; this.hi = hi;
+		}
+
+		protected void compute() {
+			if(hi-lo == 1) {
+				try {
+					parser.processChunk(lo, sink);
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			else {
+				ChunkTask left = new ChunkTask(parser, sink, lo, (hi+lo)/2);
+				ChunkTask right = new ChunkTask(parser, sink, (hi+lo)/2, hi);
+				left.fork();
+				right.compute();
+				left.join();
+			}
+		}
+	}
+}
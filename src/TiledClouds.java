@@ -0,0 +1,126 @@
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Threaded class to classify cloud type and sum wind vectors using a cache-aware tiled decomposition
+ *
+ *<p>
+ *Work is divided by time slice first, then within a slice into tiles of whole rows and whole column tiles. Columns are grouped into tiles of at most MAX_TILE_WIDTH gridpoints, so the three neighbouring rows read while classifying a row of a tile stay in cache. A leaf task walks its tile row by row with nested loops, so no linear position has to be converted back into grid indices. Column tiles are also the blocks of WindSums, so the wind sums are the same as with WriteClouds.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class TiledClouds extends RecursiveAction {
+
+	static final int MAX_TILE_WIDTH = 2048; // widest column tile, keeps three rows of wind values within L2
+
+	PackedClassification classification;
+	CloudGrid grid;
+	int t0, t1; // time slices [t0, t1)
+	int x0, x1; // rows [x0, x1)
+	int c0, c1; // column tiles [c0, c1)
+	int tileWidth;
+	int cutoff;
+	boolean simd;
+	WindSums sums; // partial wind sums written by the leaf tasks
+	int radius; // neighbourhood radius, 1 for the 3x3 neighbourhood
+
+	/**
+	*Creates a new TiledClouds instance covering whole time slices
+	*
+	*@param clas Packed classification that cloud types are written to
+	*@param grid Grid of advection values to be added and convection values used in cloud classification method
+	*@param t0 First time slice to classify
+	*@param t1 Time slice after the last one to classify
+	*@param cutoff Number of gridpoints below which a tile is processed sequentially
+	*@param simd Whether to classify using SimdKernel rather than the scalar kernel
+	*@param sums Partial sums the wind values are added into
+	*@param radius Neighbourhood radius, 1 for the 3x3 neighbourhood
+	*/
+	public TiledClouds(PackedClassification clas, CloudGrid grid, int t0, int t1, int cutoff, boolean simd, WindSums sums, int radius) {
+		this(clas, grid, t0, t1, 0, grid.dimx, 0, columnTiles(grid.dimy), cutoff, simd, sums, radius);
+	}
+
+	TiledClouds(PackedClassification clas, CloudGrid grid, int t0, int t1, int x0, int x1, int c0, int c1, int cutoff, boolean simd, WindSums sums, int radius) {
+		classification = clas; this.grid = grid;
+		this.t0 = t0; this.t1 = t1; this.x0 = x0; this.x1 = x1; this.c0 = c0; this.c1 = c1;
+		this.cutoff = cutoff; this.simd = simd; this.sums = sums; this.radius = radius;
+		tileWidth = tileWidth(grid.dimy);
+	}
+
+	/**
+	* Computes the width of the column tiles for a grid, splitting rows into equal tiles of at most MAX_TILE_WIDTH gridpoints
+	*
+	*@param dimy Number of gridpoints in the y direction
+	*@return Integer value representing the number of columns per tile, a multiple of 4 unless the row fits in one tile
+	*/
+	public static int tileWidth(int dimy) {
+		if(dimy <= MAX_TILE_WIDTH) {
+			return dimy;
+		}
+		int tiles = (dimy + MAX_TILE_WIDTH - 1)/MAX_TILE_WIDTH;
+		int width = (dimy + tiles - 1)/tiles;
+		return (width + 3) & ~3;
+	}
+
+	/**
+	* Computes the number of column tiles per row
+	*
+	*@param dimy Number of gridpoints in the y direction
+	*@return Integer value representing the number of column tiles
+	*/
+	public static int columnTiles(int dimy) {
+		int width = tileWidth(dimy);
+		return (dimy + width - 1)/width;
+	}
+
+	/**
+	* Classifies the tile and sums its wind values into the WindSums blocks, splitting it until the sequential cutoff is reached
+	*/
+	protected void compute() {
+		int dimy = grid.dimy;
+		int y0 = c0*tileWidth;
+		int y1 = Math.min(dimy, c1*tileWidth);
+		long cells = (long)(t1-t0)*(x1-x0)*(y1-y0);
+		TiledClouds left, right;
+		if(t1 <= t0) {
+			return;
+		}
+		else if(t1-t0 > 1) { // split by time slice first
+			int mid = (t0+t1)/2;
+			left = new TiledClouds(classification, grid, t0, mid, x0, x1, c0, c1, cutoff, simd, sums, radius);
+			right = new TiledClouds(classification, grid, mid, t1, x0, x1, c0, c1, cutoff, simd, sums, radius);
+		}
+		else if(cells < cutoff || (x1-x0 == 1 && c1-c0 == 1)) {
+			sumTile(y0, y1);
+			return;
+		}
+		else if(c1-c0 > 1) { // then into column tiles
+			int mid = (c0+c1)/2;
+			left = new TiledClouds(classification, grid, t0, t1, x0, x1, c0, mid, cutoff, simd, sums, radius);
+			right = new TiledClouds(classification, grid, t0, t1, x0, x1, mid, c1, cutoff, simd, sums, radius);
+		}
+		else { // then into bands of rows
+			int mid = (x0+x1)/2;
+			left = new TiledClouds(classification, grid, t0, t1, x0, mid, c0, c1, cutoff, simd, sums, radius);
+			right = new TiledClouds(classification, grid, t0, t1, mid, x1, c0, c1, cutoff, simd, sums, radius);
+		}
+		left.fork();
+		RunMetrics.forked();
+		right.compute();
+		left.join();
+	}
+
+	/**
+	* Classifies every gridpoint of a tile within a single time slice and sums its wind values
+	*/
+	void sumTile(int y0, int y1) {
+		CloudKernel kernel = CloudKernel.create(grid, simd, radius);
+		for(int x = x0; x < x1 && y0 < y1; x++) {
+			kernel.classifyRow(t0, x, y0, y1, classification);
+			sums.sumRow(grid, t0, x, y0, y1);
+		}
+		RunMetrics.leaf((long)(x1-x0)*(y1-y0));
+	}
+}
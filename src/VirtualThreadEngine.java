@@ -0,0 +1,70 @@
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Engine classifying each time slice on a thread of its own, virtual if the JVM supports virtual threads
+ *
+ *<p>
+ *A thread is started per time slice, but a semaphore lets at most parallelism of them run at once, which sets the parallelism whatever the size of the virtual thread scheduler. Slices are classified whole, so the cutoff is not used and grids with fewer time slices than threads leave threads idle. On JVMs without virtual threads, platform threads are started instead, as SlicePipeline does.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class VirtualThreadEngine implements ClassificationEngine {
+
+	int threads;
+
+	/**
+	*Creates an engine running at most the given number of slices at once
+	*
+	*@param threads Number of slices classified at once
+	*/
+	public VirtualThreadEngine(int threads) {
+		this.threads = threads;
+	}
+
+	public double[] classify(CloudGrid grid, PackedClassification classification, int slices, int cutoff, boolean simd, int radius, WindSums sums) {
+		Semaphore running = new Semaphore(threads);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		try {
+			for(int t = 0; t < slices; t++) {
+				int slice = t;
+				running.acquire();
+				SlicePipeline.startThread(() -> {
+					try {
+						ClassificationEngine.classifyRows(grid, classification, slice*grid.dimx, (slice+1)*grid.dimx, simd, radius, sums);
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+					finally {
+						running.release();
+					}
+				}, "slice-engine");
+			}
+			running.acquire(threads); // every slice has finished
+			running.release(threads);
+		}
+		catch (InterruptedException e) {
+			throw new IllegalStateException("Interrupted while classifying slices", e);
+		}
+		if(failure.get() != null) {
+			throw new IllegalStateException("Classification task failed", failure.get());
+		}
+		return sums.total(slices);
+	}
+
+	public String name() {
+		return "virtual";
+	}
+
+	public int parallelism() {
+		return threads;
+	}
+
+	public void close() {
+		//threads end with their slice
+	}
+}
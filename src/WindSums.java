@@ -0,0 +1,180 @@
+
+/**
+ * Holds the partial wind sums of a grid and reduces them in a fixed order, so the prevailing wind has the same bits however the work was divided
+ *
+ *<p>
+ *The grid is divided into blocks, each one row of a time slice cut into the column tiles used by TiledClouds. Every block is summed sequentially with Neumaier compensated summation into its own place in the preallocated partial arrays. The blocks of each time slice are then added with a fixed pairwise tree, and the slice sums with a second fixed pairwise tree. Neither the block boundaries nor the trees depend on the sequential cutoff, the decomposition or the number of threads, and no allocation is needed while the thread classes run.
+ *</p>
+ *@author Samantha Ball
+ *@version 1.0
+ *@since 1
+ */
+public class WindSums {
+
+	int dimt, dimx, dimy; // dimensions of the grid the sums are kept for
+	int width; // number of columns per block
+	int tiles; // number of blocks per row
+	double[] blockx, blocky; // sum of each block
+	double[] slicex, slicey; // sum of each time slice
+
+	/**
+	*Creates the partial sum arrays for the given grid
+	*
+	*@param grid Grid whose wind values will be summed
+	*/
+	public WindSums(CloudGrid grid) {
+		dimt = grid.dimt; dimx = grid.dimx; dimy = grid.dimy;
+		width = TiledClouds.tileWidth(dimy);
+		tiles = TiledClouds.columnTiles(dimy);
+		blockx = new double[dimt*dimx*tiles];
+		blocky = new double[dimt*dimx*tiles];
+		slicex = new double[dimt];
+		slicey = new double[dimt];
+	}
+
+	/**
+	* Checks whether these sums were created for a grid of the given shape
+	*
+	*@param grid Grid to compare with
+	*@return Boolean value indicating whether the dimensions match
+	*/
+	public boolean fits(CloudGrid grid) {
+		return grid.dimt == dimt && grid.dimx == dimx && grid.dimy == dimy;
+	}
+
+	/**
+	* Finds the start of the block holding a linear position
+	*
+	*@param pos Linear position of a gridpoint
+	*@return Integer value representing the linear position of the first gridpoint of its block
+	*/
+	public int align(int pos) {
+		int row = pos - pos%dimy;
+		return row + (pos-row)/width*width;
+	}
+
+	/**
+	* Sums every block in a range of linear positions
+	*
+	*@param grid Grid holding the wind values
+	*@param lo Start of the first block, as returned by align
+	*@param hi Start of the block after the last one, as returned by align, or the grid size
+	*/
+	public void sumRange(CloudGrid grid, int lo, int hi) {
+		for(int start = lo; start < hi; ) {
+			int row = start/dimy;
+			int y0 = start - row*dimy;
+			int y1 = Math.min(dimy, y0+width);
+			sumBlock(grid, row, y0, y1);
+			start += y1-y0;
+		}
+	}
+
+	/**
+	* Sums the blocks of one row lying within a range of columns
+	*
+	*@param grid Grid holding the wind values
+	*@param t Time value of the row
+	*@param x x position of the row
+	*@param y0 First column, a multiple of the block width
+	*@param y1 Column after the last one, a multiple of the block width or dimy
+	*/
+	public void sumRow(CloudGrid grid, int t, int x, int y0, int y1) {
+		int row = t*dimx + x;
+		for(int y = y0; y < y1; y += width) {
+			sumBlock(grid, row, y, Math.min(y1, y+width));
+		}
+	}
+
+	/**
+	* Sums one block with Neumaier compensated summation
+	*/
+	void sumBlock(CloudGrid grid, int row, int y0, int y1) {
+		int from = row*dimy + y0;
+		int to = row*dimy + y1;
+		int block = row*tiles + y0/width;
+		blockx[block] = compensatedSum(grid.windx, from, to);
+		blocky[block] = compensatedSum(grid.windy, from, to);
+	}
+
+	/**
+	* Adds a range of values with Neumaier compensated summation, as done for every block
+	*
+	*@param v Array of values
+	*@param from First value to add
+	*@param to Position after the last value to add
+	*@return Double value representing the compensated sum
+	*/
+	public static double compensatedSum(double[] v, int from, int to) {
+		double sum = 0, c = 0;
+		for(int i = from; i < to; i++) {
+			double s = sum + v[i];
+			c += (Math.abs(sum) >= Math.abs(v[i])) ? (sum - s) + v[i] : (v[i] - s) + sum;
+			sum = s;
+		}
+		return sum + c;
+	}
+
+	/**
+	* Adds the blocks of each time slice in a range, storing the slice sums
+	*
+	*@param t0 First time slice
+	*@param t1 Time slice after the last one
+	*/
+	public void reduceSlices(int t0, int t1) {
+		int perSlice = dimx*tiles;
+		for(int t = t0; t < t1; t++) {
+			slicex[t] = pairwise(blockx, t*perSlice, (t+1)*perSlice);
+			slicey[t] = pairwise(blocky, t*perSlice, (t+1)*perSlice);
+		}
+	}
+
+	/**
+	* Adds the sums of the first time slices, after reducing them from their blocks
+	*
+	*@param slices Number of time slices to add
+	*@return Array holding the sum of the x values and the sum of the y values
+	*/
+	public double[] total(int slices) {
+		reduceSlices(0, slices);
+		return new double[] {pairwise(slicex, 0, slices), pairwise(slicey, 0, slices)};
+	}
+
+	/**
+	* Adds a range of values by halving it recursively, so the order of additions depends only on the length of the range
+	*
+	*@param v Array of values
+	*@param lo First value to add
+	*@param hi Position after the last value to add
+	*@return Double value representing the sum
+	*/
+	public static double pairwise(double[] v, int lo, int hi) {
+		if(hi-lo <= 2) {
+			return (hi-lo == 2) ? v[lo] + v[lo+1] : (hi > lo) ? v[lo] : 0;
+		}
+		int mid = (lo+hi) >>> 1;
+		return pairwise(v, lo, mid) + pairwise(v, mid, hi);
+	}
+
+	/**
+	* Adds a non-empty range of values in the same order as pairwise, keeping the sum of every inner node of the tree
+	*
+	*<p>
+	*The node covering [lo, hi) is stored at nodes[mid], where mid is the point the range is split at. Each inner node has a different split point, so nodes needs no more room than the values. When one value changes, only the nodes on its path to the root need to be added again, giving the same sum as adding the whole range again.
+	*</p>
+	*@param v Array of values
+	*@param nodes Array at least as long as v to hold the node sums
+	*@param lo First value to add
+	*@param hi Position after the last value to add
+	*@return Double value representing the sum, equal to pairwise(v, lo, hi)
+	*/
+	public static double build(double[] v, double[] nodes, int lo, int hi) {
+		if(hi-lo == 1) {
+			return v[lo];
+		}
+		int mid = (lo+hi) >>> 1;
+		double sum = build(v, nodes, lo, mid) + build(v, nodes, mid, hi);
+		nodes[mid] = sum;
+		return sum;
+	}
+}